@@ -18,7 +18,7 @@ import org.junit.*;
  *
  */
 public class CompletableFutureTest {
-	static ExecutorService threadPool = Executors.newCachedThreadPool();
+	static ExecutorService threadPool = Pools.cached("CompletableFutureTest", 64);
 	
 	/**
 	 * get() 會等 CompletableFuture 做完才執行下一行
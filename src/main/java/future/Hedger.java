@@ -0,0 +1,104 @@
+package future;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Hedged request：第一次嘗試到了最近延遲的 p95 還沒完成，就再發一次備援，誰先成功用誰。
+ * 多花大約 5% 的請求，換掉最慢那 5% 的尾巴。等待用的是 Timeouts 共用的 timer thread。
+ *
+ * p95 從最近 window 次第一次嘗試的延遲算出，樣本不夠之前用 initialDelay。
+ * attempt 只應該發出請求、回傳 stage，備援的 attempt.get() 是在 timer thread 上呼叫的。
+ * 已發出的每一次都失敗才算失敗，例外是最後失敗的那一次。
+ * @author hawk
+ *
+ */
+public class Hedger {
+	private final long[] latencies;
+	private int next = 0, size = 0;
+	private volatile long hedgeDelayNanos;
+	private final LongAdder calls = new LongAdder(), hedges = new LongAdder();
+
+	public Hedger(int window, long initialDelay, TimeUnit unit) {
+		if (window < 20)
+			throw new IllegalArgumentException("window: " + window);
+		latencies = new long[window];
+		hedgeDelayNanos = unit.toNanos(initialDelay);
+	}
+
+	public Hedger() {
+		this(1000, 100, TimeUnit.MILLISECONDS);
+	}
+
+	public <T> CompletableFuture<T> call(Supplier<? extends CompletionStage<T>> attempt) {
+		calls.increment();
+		CompletableFuture<T> result = new CompletableFuture<>();
+		AtomicInteger running = new AtomicInteger(1);
+		long start = System.nanoTime();
+		launch(attempt, result, running, true, start);
+		if (!result.isDone()) {
+			ScheduledFuture<?> backup = Timeouts.schedule(() -> {
+				if (result.isDone())
+					return;
+				hedges.increment();
+				running.incrementAndGet();
+				launch(attempt, result, running, false, start);
+			}, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+			result.whenComplete((r, e) -> backup.cancel(false));
+		}
+		return result;
+	}
+
+	private <T> void launch(Supplier<? extends CompletionStage<T>> attempt, CompletableFuture<T> result,
+			AtomicInteger running, boolean first, long start) {
+		CompletionStage<T> stage;
+		try {
+			stage = attempt.get();
+		} catch (Throwable t) {
+			stage = failed(t);
+		}
+		stage.whenComplete((r, e) -> {
+			if (first && e == null)
+				record(System.nanoTime() - start);
+			// 失敗時另一次還在跑就等它；備援還沒發就直接失敗，不當作重試
+			if (e == null)
+				result.complete(r);
+			else if (running.decrementAndGet() == 0)
+				result.completeExceptionally(e);
+		});
+	}
+
+	private static <T> CompletableFuture<T> failed(Throwable t) {
+		CompletableFuture<T> f = new CompletableFuture<>();
+		f.completeExceptionally(t);
+		return f;
+	}
+
+	private synchronized void record(long nanos) {
+		latencies[next] = nanos;
+		next = (next + 1) % latencies.length;
+		if (size < latencies.length)
+			size++;
+		// 每 1/10 個 window 重算一次 p95，不是每次都排序
+		if (size >= 20 && next % Math.max(1, latencies.length / 10) == 0) {
+			long[] sorted = Arrays.copyOf(latencies, size);
+			Arrays.sort(sorted);
+			hedgeDelayNanos = sorted[(int) Math.ceil(0.95 * size) - 1];
+		}
+	}
+
+	/** 現在用來決定要不要發備援的延遲 */
+	public long getHedgeDelay(TimeUnit unit) {
+		return unit.convert(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public long getCallCount() {
+		return calls.sum();
+	}
+
+	public long getHedgeCount() {
+		return hedges.sum();
+	}
+}
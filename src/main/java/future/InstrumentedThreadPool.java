@@ -0,0 +1,146 @@
+package future;
+
+import java.lang.management.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.management.*;
+
+/**
+ * 有名字的 ThreadPoolExecutor，thread 叫 name-1, name-2 ...，
+ * 並記錄 queue 深度、active threads、每個 task 的等待時間 / 執行時間與被拒絕的次數，
+ * 透過 JMX 公開。用 Pools 建立。
+ * @author hawk
+ *
+ */
+public class InstrumentedThreadPool extends ThreadPoolExecutor implements InstrumentedThreadPoolMXBean {
+	private final String name;
+	private final ObjectName objectName;
+	private final Stat wait = new Stat(), run = new Stat();
+	private final LongAdder rejected = new LongAdder();
+	/** 註冊成功才設；名字重複時 objectName 是別的 pool 的，不能去 unregister */
+	private volatile boolean registered = false;
+
+	static class Stat {
+		final LongAdder count = new LongAdder(), totalNanos = new LongAdder();
+		final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+		void record(long nanos) {
+			count.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+		}
+
+		long averageMicros() {
+			long n = count.sum();
+			return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / n);
+		}
+
+		long maxMicros() {
+			return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+		}
+	}
+
+	/** 記下進入 execute() 的時間，開始跑時算出等了多久 */
+	private class Timed implements Runnable {
+		final Runnable task;
+		final long enqueued = System.nanoTime();
+
+		Timed(Runnable task) {
+			this.task = task;
+		}
+
+		public void run() {
+			long start = System.nanoTime();
+			wait.record(start - enqueued);
+			try {
+				task.run();
+			} finally {
+				run.record(System.nanoTime() - start);
+			}
+		}
+	}
+
+	InstrumentedThreadPool(String name, int core, int max, long keepAliveSeconds, BlockingQueue<Runnable> queue,
+			RejectedExecutionHandler handler) {
+		super(core, max, keepAliveSeconds, TimeUnit.SECONDS, queue, namedThreads(name));
+		this.name = name;
+		setRejectedExecutionHandler((r, pool) -> {
+			rejected.increment();
+			handler.rejectedExecution(r, pool);
+		});
+		try {
+			objectName = new ObjectName("future:type=ThreadPool,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			registered = true;
+		} catch (JMException e) {
+			super.shutdownNow();
+			throw new IllegalStateException("Cannot register pool " + name, e);
+		}
+	}
+
+	static ThreadFactory namedThreads(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		super.execute(new Timed(command));
+	}
+
+	@Override
+	protected void terminated() {
+		if (registered) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException ignore) {
+			}
+		}
+		Pools.remove(name, this);
+		super.terminated();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public ObjectName getObjectName() {
+		return objectName;
+	}
+
+	public int getQueueDepth() {
+		return getQueue().size();
+	}
+
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	public long getAverageWaitMicros() {
+		return wait.averageMicros();
+	}
+
+	public long getMaxWaitMicros() {
+		return wait.maxMicros();
+	}
+
+	public long getAverageRunMicros() {
+		return run.averageMicros();
+	}
+
+	public long getMaxRunMicros() {
+		return run.maxMicros();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[queue=%d, active=%d, pool=%d, completed=%d, rejected=%d, wait avg/max=%d/%dus, run avg/max=%d/%dus]",
+				name, getQueueDepth(), getActiveCount(), getPoolSize(), getCompletedTaskCount(), getRejectedCount(),
+				getAverageWaitMicros(), getMaxWaitMicros(), getAverageRunMicros(), getMaxRunMicros());
+	}
+}
@@ -0,0 +1,32 @@
+package future;
+
+/**
+ * InstrumentedThreadPool 在 JMX 上看得到的 metrics（以 future:type=ThreadPool,name=... 註冊）。
+ * 時間都是 microseconds。
+ * @author hawk
+ *
+ */
+public interface InstrumentedThreadPoolMXBean {
+	String getName();
+
+	int getQueueDepth();
+
+	int getActiveCount();
+
+	int getPoolSize();
+
+	int getMaximumPoolSize();
+
+	long getCompletedTaskCount();
+
+	long getRejectedCount();
+
+	/** 從 execute() 到開始執行的平均等待時間 */
+	long getAverageWaitMicros();
+
+	long getMaxWaitMicros();
+
+	long getAverageRunMicros();
+
+	long getMaxRunMicros();
+}
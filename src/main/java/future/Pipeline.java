@@ -0,0 +1,204 @@
+package future;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * 有界並行的非同步 pipeline：每個 stage 是一個 thenCompose 形式的 function，
+ * 例如 CompletableFutureTest.templateMethod() 回傳的那種。
+ * 每個 stage 最多同時處理 maxInFlight 個元素；一個元素要等下一個 stage 有空位才會交出去，
+ * source 也只在第一個 stage 有空位時才被拉下一筆，所以 source 再快，記憶體用量也有上限。
+ * ORDERED 照 source 的順序交給 sink，UNORDERED 誰先完成誰先交。
+ *
+ * Pipeline 本身不可變，thenCompose() 回傳新的 Pipeline，可以重複 run()。
+ * @author hawk
+ *
+ */
+public class Pipeline<I, O> {
+	public enum Order { ORDERED, UNORDERED }
+
+	private static class Stage {
+		final int maxInFlight;
+		final Function<Object, ? extends CompletionStage<?>> fn;
+		Stage(int maxInFlight, Function<Object, ? extends CompletionStage<?>> fn) {
+			if (maxInFlight < 1)
+				throw new IllegalArgumentException("maxInFlight: " + maxInFlight);
+			this.maxInFlight = maxInFlight;
+			this.fn = fn;
+		}
+	}
+
+	private final List<Stage> stages;
+
+	private Pipeline(List<Stage> stages) {
+		this.stages = stages;
+	}
+
+	public static <T> Pipeline<T, T> start() {
+		return new Pipeline<T, T>(Collections.<Stage>emptyList());
+	}
+
+	@SuppressWarnings("unchecked")
+	public <R> Pipeline<I, R> thenCompose(int maxInFlight,
+			Function<? super O, ? extends CompletionStage<R>> fn) {
+		List<Stage> next = new ArrayList<Stage>(stages);
+		next.add(new Stage(maxInFlight, (Function<Object, ? extends CompletionStage<?>>) fn));
+		return new Pipeline<I, R>(Collections.unmodifiableList(next));
+	}
+
+	/**
+	 * 把 source 的每個元素送過所有 stage 再交給 sink。
+	 * sink 一次只會被一個 thread 呼叫。回傳的 future 在全部交完時得到交給 sink 的數量，
+	 * 任何 stage 或 sink 出錯就以該例外結束，並停止向 source 拉資料。
+	 */
+	public CompletableFuture<Long> run(Iterator<? extends I> source, Consumer<? super O> sink, Order order) {
+		if (stages.isEmpty())
+			throw new IllegalStateException("Pipeline has no stages");
+		return new Run(source, sink, order).begin();
+	}
+
+	private static class Item {
+		final long seq;
+		Object value;
+		Item(long seq, Object value) {
+			this.seq = seq;
+			this.value = value;
+		}
+	}
+
+	private static class Done {
+		final int stage;
+		final Item item;
+		final Object result;
+		final Throwable error;
+		Done(int stage, Item item, Object result, Throwable error) {
+			this.stage = stage;
+			this.item = item;
+			this.result = result;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * 所有狀態只在 drain() 裡改動，而 drain() 同一時間只有一個 thread 在跑（wip 計數），
+	 * stage 完成時只把結果放進 completions 再 signal()，所以不需要 lock，
+	 * 同步完成的 stage 也不會造成遞迴。
+	 */
+	private class Run {
+		final Iterator<? extends I> source;
+		final Consumer<? super O> sink;
+		final Order order;
+		final CompletableFuture<Long> result = new CompletableFuture<Long>();
+		final Queue<Done> completions = new ConcurrentLinkedQueue<Done>();
+		final AtomicInteger wip = new AtomicInteger();
+		// 每個 stage 佔用中的名額：執行中 + 已完成但還沒交給下一站
+		final int[] inFlight = new int[stages.size()];
+		final List<Queue<Item>> ready = new ArrayList<Queue<Item>>();
+		// ORDERED 時，最後一站完成但還輪不到的結果
+		final PriorityQueue<Item> reorder =
+				new PriorityQueue<Item>(11, (a, b) -> Long.compare(a.seq, b.seq));
+		// ORDERED 時，已拉出但未交給 sink 的上限，reorder 也就不會超過它
+		final long window;
+		long pulled = 0, emitted = 0;
+		boolean exhausted = false;
+
+		Run(Iterator<? extends I> source, Consumer<? super O> sink, Order order) {
+			this.source = source;
+			this.sink = sink;
+			this.order = order;
+			long sum = 0;
+			for (Stage stage : stages) {
+				ready.add(new ArrayDeque<Item>());
+				sum += stage.maxInFlight;
+			}
+			window = sum;
+		}
+
+		CompletableFuture<Long> begin() {
+			signal();
+			return result;
+		}
+
+		void signal() {
+			if (wip.getAndIncrement() != 0)
+				return;
+			int missed = 1;
+			while (true) {
+				try {
+					drain();
+				} catch (Throwable t) {
+					result.completeExceptionally(t);
+				}
+				missed = wip.addAndGet(-missed);
+				if (missed == 0)
+					return;
+			}
+		}
+
+		void drain() {
+			Done d;
+			while ((d = completions.poll()) != null) {
+				if (d.error != null) {
+					result.completeExceptionally(d.error);
+				} else {
+					d.item.value = d.result;
+					ready.get(d.stage).add(d.item);
+				}
+			}
+			if (result.isDone())
+				return;
+			int last = stages.size() - 1;
+			// 從後面往前交棒，先騰出後段的名額
+			for (int k = last; k >= 0; k--) {
+				Queue<Item> q = ready.get(k);
+				while (!q.isEmpty()) {
+					if (k == last) {
+						// 最後一站的名額一完成就釋放，不然排在前面的元素可能永遠等不到名額
+						Item item = q.poll();
+						inFlight[k]--;
+						if (order == Order.ORDERED)
+							reorder.add(item);
+						else
+							emit(item.value);
+					} else if (inFlight[k + 1] < stages.get(k + 1).maxInFlight) {
+						Item item = q.poll();
+						inFlight[k]--;
+						launch(k + 1, item);
+					} else {
+						break;
+					}
+				}
+			}
+			while (!reorder.isEmpty() && reorder.peek().seq == emitted)
+				emit(reorder.poll().value);
+			// 第一個 stage 有空位才向 source 要資料
+			while (!exhausted && inFlight[0] < stages.get(0).maxInFlight
+					&& (order == Order.UNORDERED || pulled - emitted < window)) {
+				if (!source.hasNext()) {
+					exhausted = true;
+					break;
+				}
+				launch(0, new Item(pulled++, source.next()));
+			}
+			if (exhausted && emitted == pulled)
+				result.complete(emitted);
+		}
+
+		@SuppressWarnings("unchecked")
+		void emit(Object value) {
+			sink.accept((O) value);
+			emitted++;
+		}
+
+		void launch(int k, Item item) {
+			inFlight[k]++;
+			CompletionStage<?> stage = stages.get(k).fn.apply(item.value);
+			stage.whenComplete((r, e) -> {
+				completions.add(new Done(k, item, r, e));
+				signal();
+			});
+		}
+	}
+}
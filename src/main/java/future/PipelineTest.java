@@ -0,0 +1,102 @@
+package future;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+import org.junit.*;
+
+public class PipelineTest {
+	static ExecutorService threadPool = Executors.newFixedThreadPool(8);
+
+	static CompletableFuture<Integer> slowly(int value, AtomicInteger running, AtomicInteger maxRunning) {
+		return CompletableFuture.supplyAsync(() -> {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			try {
+				TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextInt(5));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				running.decrementAndGet();
+			}
+			return value;
+		}, threadPool);
+	}
+
+	/**
+	 * ORDERED: 就算每筆完成的時間不同，sink 收到的順序還是跟 source 一樣
+	 */
+	@Test
+	public void ordered() throws Exception {
+		AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger();
+		List<Integer> out = new ArrayList<>();
+		long count = Pipeline.<Integer>start()
+				.thenCompose(4, (Integer i) -> slowly(i, running, maxRunning))
+				.thenCompose(2, i -> CompletableFuture.supplyAsync(() -> i * 10, threadPool))
+				.run(IntStream.range(0, 200).iterator(), out::add, Pipeline.Order.ORDERED)
+				.get(10, TimeUnit.SECONDS);
+
+		Assert.assertThat(count, is(200L));
+		Assert.assertEquals(IntStream.range(0, 200).map(i -> i * 10).boxed().collect(Collectors.toList()), out);
+		Assert.assertTrue(maxRunning.get() <= 4);
+	}
+
+	/**
+	 * source 再快，被拉出來但還沒交給 sink 的數量也不會超過所有 stage 的名額總和
+	 */
+	@Test
+	public void backpressure() throws Exception {
+		AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger();
+		AtomicLong pulled = new AtomicLong(), emitted = new AtomicLong(), maxAhead = new AtomicLong();
+		Iterator<Integer> fast = new Iterator<Integer>() {
+			public boolean hasNext() {
+				return pulled.get() < 1000;
+			}
+			public Integer next() {
+				return (int) pulled.getAndIncrement();
+			}
+		};
+		Set<Integer> out = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+		Pipeline.<Integer>start()
+				.thenCompose(3, (Integer i) -> slowly(i, running, maxRunning))
+				.thenCompose(2, i -> CompletableFuture.completedFuture(i))
+				.run(fast, i -> {
+					maxAhead.accumulateAndGet(pulled.get() - emitted.incrementAndGet(), Math::max);
+					out.add(i);
+				}, Pipeline.Order.UNORDERED)
+				.get(10, TimeUnit.SECONDS);
+
+		Assert.assertThat(out.size(), is(1000));
+		Assert.assertTrue("ran " + maxRunning.get(), maxRunning.get() <= 3);
+		Assert.assertTrue("ahead " + maxAhead.get(), maxAhead.get() <= 3 + 2);
+	}
+
+	@Test(expected = ExecutionException.class)
+	public void failure() throws Exception {
+		Pipeline.<Integer>start()
+				.thenCompose(2, (Integer i) -> CompletableFuture.supplyAsync(() -> {
+					if (i == 42)
+						throw new RuntimeException("on purpose");
+					return i;
+				}))
+				.run(IntStream.range(0, 100).iterator(), i -> {}, Pipeline.Order.UNORDERED)
+				.get(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * templateMethod() 回傳的 function 可以直接當作一個 stage
+	 */
+	@Test
+	public void templateMethodStage() throws Exception {
+		CompletableFutureTest template = new CompletableFutureTest();
+		long count = Pipeline.<String>start()
+				.thenCompose(2, template.templateMethod(template::updateUi))
+				.run(Arrays.asList("a", "b", "c").iterator(), v -> {}, Pipeline.Order.ORDERED)
+				.get(10, TimeUnit.SECONDS);
+		Assert.assertThat(count, is(3L));
+	}
+}
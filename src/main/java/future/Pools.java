@@ -0,0 +1,60 @@
+package future;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 建立有名字、有大小、有 metrics 的 thread pool，用來取代 ForkJoinPool.commonPool() 和沒有上限的 newCachedThreadPool()。
+ * 每個非同步 stage 用 xxxAsync(..., Pools.get("io")) 指定自己的 pool，
+ * 會 block 的 stage 放在 io pool，就不會把 cpu pool 的 thread 佔住。
+ * @author hawk
+ *
+ */
+public class Pools {
+	private static final ConcurrentMap<String, InstrumentedThreadPool> pools = new ConcurrentHashMap<>();
+
+	/**
+	 * 固定 threads 個 thread，queue 最多 queueCapacity 個 task，滿了就丟 RejectedExecutionException
+	 */
+	public static InstrumentedThreadPool fixed(String name, int threads, int queueCapacity) {
+		return register(new InstrumentedThreadPool(name, threads, threads, 0, new ArrayBlockingQueue<>(queueCapacity),
+				new ThreadPoolExecutor.AbortPolicy()));
+	}
+
+	/**
+	 * 跟 Executors.newCachedThreadPool() 一樣，但最多 maxThreads 個 thread
+	 */
+	public static InstrumentedThreadPool cached(String name, int maxThreads) {
+		return register(new InstrumentedThreadPool(name, 0, maxThreads, 60, new SynchronousQueue<>(),
+				new ThreadPoolExecutor.AbortPolicy()));
+	}
+
+	/**
+	 * 給 CPU 運算的 stage：跟 CPU 數一樣多的 thread
+	 */
+	public static InstrumentedThreadPool cpu(String name) {
+		int n = Runtime.getRuntime().availableProcessors();
+		return fixed(name, n, 1024 * n);
+	}
+
+	// 名字重複的話，建構時的 JMX 註冊就已經失敗了
+	private static InstrumentedThreadPool register(InstrumentedThreadPool pool) {
+		pools.put(pool.getName(), pool);
+		return pool;
+	}
+
+	public static InstrumentedThreadPool get(String name) {
+		InstrumentedThreadPool pool = pools.get(name);
+		if (pool == null)
+			throw new IllegalArgumentException("No such pool: " + name);
+		return pool;
+	}
+
+	public static Collection<InstrumentedThreadPool> all() {
+		return Collections.unmodifiableCollection(pools.values());
+	}
+
+	static void remove(String name, InstrumentedThreadPool pool) {
+		pools.remove(name, pool);
+	}
+}
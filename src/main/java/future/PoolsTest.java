@@ -0,0 +1,98 @@
+package future;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.lang.management.*;
+import java.util.concurrent.*;
+
+import javax.management.*;
+
+import org.junit.*;
+
+public class PoolsTest {
+
+	/**
+	 * 每個 stage 各自指定 pool：會 block 的在 io，運算在 cpu
+	 */
+	@Test
+	public void routeStages() throws Exception {
+		InstrumentedThreadPool io = Pools.fixed("test-io", 4, 100);
+		InstrumentedThreadPool cpu = Pools.cpu("test-cpu");
+		try {
+			String threads = CompletableFuture.supplyAsync(() -> {
+				CompletableFutureTest.sleepSecond(1);
+				return Thread.currentThread().getName();
+			}, io)
+			.thenApplyAsync(prev -> prev + " " + Thread.currentThread().getName(), cpu)
+			.get(5, TimeUnit.SECONDS);
+
+			Assert.assertTrue(threads, threads.matches("test-io-\\d+ test-cpu-\\d+"));
+		} finally {
+			io.shutdown();
+			cpu.shutdown();
+		}
+		// task 的 metrics 在 future 完成之後才記錄，等 pool 結束再看
+		io.awaitTermination(1, TimeUnit.SECONDS);
+		System.out.println(io + "\n" + cpu);
+		Assert.assertThat(io.getCompletedTaskCount(), is(1L));
+		Assert.assertTrue(io.getAverageRunMicros() >= 1000000);
+	}
+
+	/**
+	 * queue 滿了會被拒絕，並算在 rejected 裡；metrics 也能從 JMX 讀到
+	 */
+	@Test
+	public void rejectionsAndJmx() throws Exception {
+		InstrumentedThreadPool pool = Pools.fixed("test-small", 1, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch running = new CountDownLatch(1);
+		try {
+			Runnable blocked = () -> {
+				running.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			};
+			pool.execute(blocked); // running
+			pool.execute(blocked); // queued
+			// 等第一個真的開始跑，ActiveCount 才穩定
+			Assert.assertTrue(running.await(1, TimeUnit.SECONDS));
+			try {
+				pool.execute(blocked);
+				Assert.fail("should be rejected");
+			} catch (RejectedExecutionException expected) {
+			}
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			Assert.assertEquals(1L, server.getAttribute(pool.getObjectName(), "RejectedCount"));
+			Assert.assertEquals(1, server.getAttribute(pool.getObjectName(), "QueueDepth"));
+			Assert.assertEquals(1, server.getAttribute(pool.getObjectName(), "ActiveCount"));
+		} finally {
+			release.countDown();
+			pool.shutdown();
+			pool.awaitTermination(1, TimeUnit.SECONDS);
+		}
+		Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(pool.getObjectName()));
+	}
+
+	/**
+	 * 名字重複的第二個 pool 建不起來，也不能把第一個的 MBean 拿掉
+	 */
+	@Test
+	public void duplicateName() throws Exception {
+		InstrumentedThreadPool first = Pools.fixed("test-dup", 1, 1);
+		try {
+			try {
+				Pools.fixed("test-dup", 1, 1);
+				Assert.fail("duplicate name should fail");
+			} catch (IllegalStateException expected) {
+			}
+			Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(first.getObjectName()));
+			Assert.assertSame(first, Pools.get("test-dup"));
+		} finally {
+			first.shutdown();
+			first.awaitTermination(1, TimeUnit.SECONDS);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package future;
+
+import java.util.concurrent.*;
+
+/**
+ * Java 8 沒有的 orTimeout / completeOnTimeout / delayedExecutor（Java 9 才有），
+ * 全部共用一個 daemon timer thread，不會每個 timeout 開一個 thread。
+ * future 先完成時會把 timer 上的工作取消掉，timer 的 queue 不會越積越多。
+ *
+ * timeout 發生時 future 是在 timer thread 上完成的，所以接在後面的非 async stage 也會在 timer thread 上跑，
+ * 要做事的 stage 請用 xxxAsync(..., pool)，不然會拖慢其他 timeout。
+ * @author hawk
+ *
+ */
+public class Timeouts {
+	private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread t = new Thread(r, "future-timer");
+		t.setDaemon(true);
+		return t;
+	});
+	static {
+		// future 先完成而取消的工作立刻從 queue 拿掉
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	private Timeouts() {
+	}
+
+	/**
+	 * 在 timer thread 上 delay 後執行 task，task 要很短
+	 */
+	static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return timer.schedule(task, delay, unit);
+	}
+
+	/** timer 上還沒到期的工作數 */
+	static int pending() {
+		return timer.getQueue().size();
+	}
+
+	/**
+	 * future 在 timeout 內沒完成就以 TimeoutException 結束，回傳同一個 future
+	 */
+	public static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+		if (!future.isDone()) {
+			ScheduledFuture<?> task = schedule(
+					() -> future.completeExceptionally(new TimeoutException(timeout + " " + unit)), timeout, unit);
+			future.whenComplete((r, e) -> task.cancel(false));
+		}
+		return future;
+	}
+
+	/**
+	 * future 在 timeout 內沒完成就以 value 結束，回傳同一個 future
+	 */
+	public static <T> CompletableFuture<T> completeOnTimeout(CompletableFuture<T> future, T value, long timeout,
+			TimeUnit unit) {
+		if (!future.isDone()) {
+			ScheduledFuture<?> task = schedule(() -> future.complete(value), timeout, unit);
+			future.whenComplete((r, e) -> task.cancel(false));
+		}
+		return future;
+	}
+
+	/**
+	 * 延遲 delay 之後才把 task 交給 executor，可以用在 xxxAsync(..., delayedExecutor(...))，取代 sleepSecond()
+	 *
+	 * 到期時 executor 拒絕的話，呼叫端早就拿不到例外，也碰不到 xxxAsync 回傳的 future，
+	 * 所以交給 timer thread 的 UncaughtExceptionHandler 記下來，不會默默丟掉
+	 */
+	public static Executor delayedExecutor(long delay, TimeUnit unit, Executor executor) {
+		return task -> schedule(() -> {
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				Thread t = Thread.currentThread();
+				t.getUncaughtExceptionHandler().uncaughtException(t, e);
+			}
+		}, delay, unit);
+	}
+
+	public static Executor delayedExecutor(long delay, TimeUnit unit) {
+		return delayedExecutor(delay, unit, ForkJoinPool.commonPool());
+	}
+}
@@ -0,0 +1,103 @@
+package future;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+
+public class TimeoutsTest {
+	static ExecutorService threadPool = Executors.newFixedThreadPool(8);
+
+	static <T> CompletableFuture<T> after(long millis, T value) {
+		return CompletableFuture.supplyAsync(() -> value, Timeouts.delayedExecutor(millis, TimeUnit.MILLISECONDS, threadPool));
+	}
+
+	/**
+	 * 取代 runAsyncJoin() 那種沒有期限的 join()
+	 */
+	@Test
+	public void withTimeout() throws Exception {
+		CompletableFuture<String> slow = Timeouts.withTimeout(after(2000, "late"), 100, TimeUnit.MILLISECONDS);
+		try {
+			slow.join();
+			Assert.fail("should time out");
+		} catch (CompletionException e) {
+			Assert.assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		Assert.assertThat(Timeouts.withTimeout(after(10, "fast"), 1, TimeUnit.SECONDS).get(), is("fast"));
+	}
+
+	@Test
+	public void completeOnTimeout() throws Exception {
+		Assert.assertThat(Timeouts.completeOnTimeout(after(2000, "late"), "default", 100, TimeUnit.MILLISECONDS).get(),
+				is("default"));
+	}
+
+	/**
+	 * 先完成的 future 會把 timer 上的工作取消，不會留在 queue 裡
+	 */
+	@Test
+	public void cancelledTimersAreRemoved() throws Exception {
+		int before = Timeouts.pending();
+		for (int i = 0; i < 10000; i++)
+			Timeouts.withTimeout(CompletableFuture.supplyAsync(() -> 1, threadPool), 1, TimeUnit.HOURS).get();
+		Assert.assertTrue("pending " + Timeouts.pending(), Timeouts.pending() <= before + 1);
+	}
+
+	/**
+	 * 不用 sleepSecond()，也不佔住任何 thread 在等
+	 */
+	@Test
+	public void delayedExecutor() throws Exception {
+		long start = System.nanoTime();
+		String thread = CompletableFuture.supplyAsync(() -> Thread.currentThread().getName(),
+				Timeouts.delayedExecutor(200, TimeUnit.MILLISECONDS, threadPool)).get(1, TimeUnit.SECONDS);
+		Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+		Assert.assertTrue(thread, thread.startsWith("pool-"));
+	}
+
+	/**
+	 * 到期時才被 executor 拒絕，要交給 UncaughtExceptionHandler，不能默默丟掉
+	 */
+	@Test
+	public void delayedExecutorRejection() throws Exception {
+		Thread.UncaughtExceptionHandler old = Thread.getDefaultUncaughtExceptionHandler();
+		CompletableFuture<Throwable> reported = new CompletableFuture<>();
+		Thread.setDefaultUncaughtExceptionHandler((t, e) -> reported.complete(e));
+		try {
+			Executor rejecting = task -> {
+				throw new RejectedExecutionException("full");
+			};
+			Timeouts.delayedExecutor(10, TimeUnit.MILLISECONDS, rejecting).execute(() -> {
+			});
+			Assert.assertTrue(reported.get(1, TimeUnit.SECONDS) instanceof RejectedExecutionException);
+		} finally {
+			Thread.setDefaultUncaughtExceptionHandler(old);
+		}
+	}
+
+	/**
+	 * 大部分 10ms 完成，偶爾卡 2 秒；卡住的那次由備援在 p95 之後補上
+	 */
+	@Test
+	public void hedge() throws Exception {
+		Hedger hedger = new Hedger(100, 50, TimeUnit.MILLISECONDS);
+		AtomicInteger attempts = new AtomicInteger();
+		for (int i = 0; i < 100; i++)
+			hedger.call(() -> after(attempts.incrementAndGet() % 50 == 0 ? 2000 : 10, "ok")).get(1, TimeUnit.SECONDS);
+		System.out.println("p95 " + hedger.getHedgeDelay(TimeUnit.MILLISECONDS) + "ms, " + hedger.getHedgeCount()
+				+ " hedges in " + hedger.getCallCount() + " calls");
+		Assert.assertTrue(hedger.getHedgeDelay(TimeUnit.MILLISECONDS) < 50);
+		Assert.assertTrue(hedger.getHedgeCount() >= 2);
+		Assert.assertTrue(hedger.getHedgeCount() < 20);
+	}
+
+	@Test(expected = ExecutionException.class)
+	public void hedgeFailure() throws Exception {
+		new Hedger().call(() -> CompletableFuture.supplyAsync(() -> {
+			throw new RuntimeException("on purpose");
+		}, threadPool)).get(1, TimeUnit.SECONDS);
+	}
+}
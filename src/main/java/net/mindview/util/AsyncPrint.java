@@ -0,0 +1,452 @@
+//: net/mindview/util/AsyncPrint.java
+// Asynchronous output for Print. Each thread builds a line in
+// its own reusable Line, appending primitives straight to
+// bytes, and end() copies it into that thread's current
+// buffer. Full buffers go to a single writer thread, which
+// writes them to the channel and recycles them; every
+// flushMillis it also collects partly filled buffers. Nothing
+// is allocated per line once a thread has its Line, and no
+// thread blocks on the PrintStream lock.
+// While it runs, only the writer thread writes. Lines too
+// big for a buffer, and flushes, are handed to it in the
+// same queue, and the caller waits until they're done. So
+// lines from one thread keep their order; lines from
+// different threads are only ordered per buffer. A thread
+// still holding a Line after stop() writes what it prints
+// itself, synchronously. If a write fails, the rest of that
+// output is dropped, the failure goes to System.err, and
+// Print falls back to System.out.
+package net.mindview.util;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class AsyncPrint {
+  private static volatile AsyncPrint instance;
+  private final WritableByteChannel out;
+  private final int bufferSize;
+  private final long flushMillis;
+  // Full buffers and Handoffs, in order. Unbounded, so putting
+  // never blocks; the fixed set of free buffers is the limit:
+  private final BlockingQueue<Object> full =
+    new LinkedBlockingQueue<Object>();
+  private final BlockingQueue<ByteBuffer> free;
+  private final CopyOnWriteArrayList<Line> lines =
+    new CopyOnWriteArrayList<Line>();
+  private final ThreadLocal<Line> line = new ThreadLocal<Line>() {
+    protected Line initialValue() {
+      Line l = new Line();
+      lines.add(l);
+      return l;
+    }
+  };
+  private final Thread writer;
+  private final Thread shutdownHook;
+  private volatile boolean stopped = false;
+  // Set once the writer has exited; from then on late
+  // printers write for themselves:
+  private volatile boolean closed = false;
+  private volatile IOException failure;
+  private AsyncPrint(WritableByteChannel out, int bufferSize,
+    int buffers, long flushMillis) {
+    this.out = out;
+    this.bufferSize = bufferSize;
+    this.flushMillis = flushMillis;
+    free = new ArrayBlockingQueue<ByteBuffer>(buffers);
+    for(int i = 0; i < buffers; i++)
+      free.add(ByteBuffer.allocateDirect(bufferSize));
+    writer = new Thread(new Writer(), "AsyncPrint-writer");
+    writer.setDaemon(true);
+    shutdownHook = new Thread(new Runnable() {
+      public void run() { flush(); }
+    }, "AsyncPrint-shutdown");
+  }
+  // Route Print (and line()) through a writer thread:
+  public static synchronized void start(WritableByteChannel out,
+    int bufferSize, int buffers, long flushMillis) {
+    if(instance != null)
+      throw new IllegalStateException("AsyncPrint already started");
+    AsyncPrint ap =
+      new AsyncPrint(out, bufferSize, buffers, flushMillis);
+    ap.writer.start();
+    // Don't lose buffered output on exit:
+    Runtime.getRuntime().addShutdownHook(ap.shutdownHook);
+    instance = ap;
+  }
+  public static void start() {
+    start(Channels.newChannel(
+      new FileOutputStream(FileDescriptor.out)), 8192, 64, 100);
+  }
+  public static boolean isStarted() { return instance != null; }
+  // Flush and go back to synchronous System.out:
+  public static synchronized void stop() {
+    AsyncPrint ap = instance;
+    if(ap == null) return;
+    instance = null;
+    ap.flush();
+    ap.stopped = true;
+    ap.full.add(ap.new Handoff(null)); // Wake the writer to exit
+    boolean interrupted = false;
+    while(ap.writer.isAlive()) {
+      try {
+        ap.writer.join();
+      } catch(InterruptedException e) {
+        interrupted = true; // Late printers need it gone
+      }
+    }
+    if(interrupted)
+      Thread.currentThread().interrupt();
+    ap.closed = true;
+    // Whatever was printed after flush(). Anything later,
+    // the printer sees closed and writes itself:
+    synchronized(ap.out) {
+      ap.collectAll();
+      ap.drain();
+    }
+    try {
+      Runtime.getRuntime().removeShutdownHook(ap.shutdownHook);
+    } catch(IllegalStateException ignore) {} // Already exiting
+  }
+  // Write out everything printed so far:
+  public static void flushAll() {
+    AsyncPrint ap = instance;
+    if(ap != null) ap.flush();
+  }
+  // The calling thread's line builder, or null if AsyncPrint
+  // isn't started or has failed (so print synchronously):
+  public static Line line() {
+    AsyncPrint ap = instance;
+    return ap == null || ap.failure != null ? null : ap.line.get();
+  }
+  // A PrintStream that prints through the caller's Line, or
+  // null when line() would be; for printf() and friends.
+  // Each thread has its own, so they don't share a lock:
+  public static PrintStream stream() {
+    Line l = line();
+    return l == null ? null : l.stream();
+  }
+  public final class Line {
+    private byte[] bytes = new byte[256];
+    private int length = 0;
+    private ByteBuffer current; // Guarded by this
+    private final Thread owner = Thread.currentThread();
+    private PrintStream stream;
+    // Bytes the PrintStream encodes go on this Line. They're
+    // published after each format(), so a printf() is never
+    // split up, and by flush() or this thread's next print:
+    PrintStream stream() {
+      if(stream == null)
+        stream = new PrintStream(new OutputStream() {
+          public void write(int b) {
+            ensure(1);
+            bytes[length++] = (byte)b;
+          }
+          public void write(byte[] b, int off, int len) {
+            append(b, off, len);
+          }
+          public void flush() {
+            if(length > 0) endNoNewline();
+          }
+        }, false) {
+          public PrintStream format(String format, Object... args) {
+            super.format(format, args);
+            flush();
+            return this;
+          }
+          public PrintStream format(Locale l, String format,
+            Object... args) {
+            super.format(l, format, args);
+            flush();
+            return this;
+          }
+        };
+      return stream;
+    }
+    private void ensure(int n) {
+      if(length + n > bytes.length) {
+        byte[] b = new byte[Math.max(bytes.length * 2, length + n)];
+        System.arraycopy(bytes, 0, b, 0, length);
+        bytes = b;
+      }
+    }
+    public Line append(CharSequence s) {
+      if(s == null) return append("null");
+      int n = s.length();
+      ensure(n * 3);
+      for(int i = 0; i < n; i++) {
+        char c = s.charAt(i);
+        if(c < 0x80) {
+          bytes[length++] = (byte)c;
+        } else if(c < 0x800) {
+          bytes[length++] = (byte)(0xC0 | c >> 6);
+          bytes[length++] = (byte)(0x80 | c & 0x3F);
+        } else if(Character.isHighSurrogate(c) && i + 1 < n &&
+          Character.isLowSurrogate(s.charAt(i + 1))) {
+          int cp = Character.toCodePoint(c, s.charAt(++i));
+          bytes[length++] = (byte)(0xF0 | cp >> 18);
+          bytes[length++] = (byte)(0x80 | cp >> 12 & 0x3F);
+          bytes[length++] = (byte)(0x80 | cp >> 6 & 0x3F);
+          bytes[length++] = (byte)(0x80 | cp & 0x3F);
+        } else if(Character.isSurrogate(c)) {
+          bytes[length++] = '?'; // Unpaired surrogate
+        } else {
+          bytes[length++] = (byte)(0xE0 | c >> 12);
+          bytes[length++] = (byte)(0x80 | c >> 6 & 0x3F);
+          bytes[length++] = (byte)(0x80 | c & 0x3F);
+        }
+      }
+      return this;
+    }
+    public Line append(Object o) {
+      return append(String.valueOf(o));
+    }
+    public Line append(char c) {
+      if(c < 0x80) {
+        ensure(1);
+        bytes[length++] = (byte)c;
+        return this;
+      }
+      return append(String.valueOf(c));
+    }
+    public Line append(boolean b) {
+      return append(b ? "true" : "false");
+    }
+    public Line append(int i) { return append((long)i); }
+    // Bytes already encoded, for stream():
+    Line append(byte[] b, int off, int len) {
+      ensure(len);
+      System.arraycopy(b, off, bytes, length, len);
+      length += len;
+      return this;
+    }
+    // Digits are written in place, no String involved:
+    public Line append(long v) {
+      ensure(20);
+      if(v == Long.MIN_VALUE)
+        return append("-9223372036854775808");
+      if(v < 0) {
+        bytes[length++] = '-';
+        v = -v;
+      }
+      int start = length;
+      do {
+        bytes[length++] = (byte)('0' + v % 10);
+        v /= 10;
+      } while(v != 0);
+      for(int i = start, j = length - 1; i < j; i++, j--) {
+        byte t = bytes[i];
+        bytes[i] = bytes[j];
+        bytes[j] = t;
+      }
+      return this;
+    }
+    // Publish the line with a newline:
+    public void end() {
+      ensure(1);
+      bytes[length++] = '\n';
+      endNoNewline();
+    }
+    public void endNoNewline() {
+      try {
+        publish(bytes, length);
+      } finally {
+        length = 0;
+      }
+    }
+    // Never blocks while holding the lock, so the writer can
+    // always collect and recycle buffers:
+    private void publish(byte[] b, int n) {
+      if(closed) {
+        late(this, b, n);
+        return;
+      }
+      boolean fits = false;
+      ByteBuffer done = null;
+      synchronized(this) {
+        if(current != null) {
+          if(current.remaining() >= n) {
+            current.put(b, 0, n);
+            fits = true;
+          } else {
+            done = current;
+            current = null;
+          }
+        }
+      }
+      if(done != null) {
+        done.flip();
+        full.add(done);
+      }
+      if(!fits) {
+        if(n > bufferSize) { // Too big for any buffer
+          handOff(this, ByteBuffer.wrap(b, 0, n));
+          return;
+        }
+        ByteBuffer fresh = take(free);
+        if(fresh == null) { // The writer is gone
+          late(this, b, n);
+          return;
+        }
+        fresh.put(b, 0, n);
+        synchronized(this) {
+          current = fresh; // Only this thread ever sets current
+        }
+      }
+      // stop() may have collected its last buffers just before:
+      if(closed) late(this, null, 0);
+    }
+    // Called by the writer and flush() for partly full
+    // buffers; true if this line holds no buffer:
+    synchronized boolean collect() {
+      if(current != null && current.position() > 0) {
+        current.flip();
+        full.add(current);
+        current = null;
+      }
+      return current == null;
+    }
+  }
+  // A free buffer, waiting while the writer lags
+  // (backpressure), or null once it's gone:
+  private ByteBuffer take(BlockingQueue<ByteBuffer> q) {
+    try {
+      ByteBuffer b;
+      while((b = q.poll(flushMillis, TimeUnit.MILLISECONDS)) == null)
+        if(closed) return null;
+      return b;
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for buffer");
+    }
+  }
+  private static void put(BlockingQueue<ByteBuffer> q, ByteBuffer b) {
+    boolean interrupted = false;
+    while(true) {
+      try {
+        q.put(b);
+        break;
+      } catch(InterruptedException e) {
+        interrupted = true; // Never drop a buffer
+      }
+    }
+    if(interrupted)
+      Thread.currentThread().interrupt();
+  }
+  // Bytes for the writer to write directly (or none, just to
+  // mark a point in the queue); the caller waits for it:
+  private final class Handoff {
+    private final ByteBuffer bytes;
+    private boolean done = false;
+    Handoff(ByteBuffer bytes) { this.bytes = bytes; }
+    void run() { // In the writer
+      if(bytes != null) write(bytes);
+      synchronized(this) {
+        done = true;
+        notifyAll();
+      }
+    }
+    // True if it was done, false if the writer exited first:
+    synchronized boolean await() {
+      boolean interrupted = false;
+      // If the writer is gone, nobody will finish this:
+      while(!done && writer.isAlive()) {
+        try {
+          wait(flushMillis);
+        } catch(InterruptedException e) {
+          interrupted = true; // bytes may still be in use
+        }
+      }
+      if(interrupted)
+        Thread.currentThread().interrupt();
+      return done;
+    }
+  }
+  private void handOff(Line l, ByteBuffer b) {
+    if(closed) {
+      late(l, b.array(), b.limit());
+      return;
+    }
+    Handoff h = new Handoff(b);
+    full.add(h);
+    if(!h.await()) late(l, null, 0); // Still queued: do it here
+  }
+  // Printing after the writer has exited: write l's buffered
+  // bytes, then n bytes of b, on the caller's thread. Holding
+  // the channel lock throughout keeps each thread's order:
+  private void late(Line l, byte[] b, int n) {
+    synchronized(out) {
+      if(l != null) l.collect();
+      drain();
+      if(n > 0) write(ByteBuffer.wrap(b, 0, n));
+    }
+  }
+  private void drain() {
+    Object o;
+    while((o = full.poll()) != null)
+      process(o);
+  }
+  // The writer's, or after it has exited anyone's holding
+  // the channel lock (uncontended until then). After a
+  // failure, buffers are just recycled, so no producer
+  // waits forever:
+  private void write(ByteBuffer b) {
+    synchronized(out) {
+      if(failure != null) return;
+      try {
+        while(b.hasRemaining())
+          out.write(b);
+      } catch(IOException e) {
+        failure = e;
+        System.err.println("AsyncPrint: " + e +
+          ", printing synchronously from now on");
+      }
+    }
+  }
+  private void process(Object o) {
+    if(o instanceof ByteBuffer) {
+      ByteBuffer b = (ByteBuffer)o;
+      write(b);
+      b.clear();
+      put(free, b);
+    } else {
+      ((Handoff)o).run();
+    }
+  }
+  private void collectAll() {
+    for(Line l : lines) {
+      // Forget lines of finished threads once they're empty:
+      if(l.collect() && !l.owner.isAlive())
+        lines.remove(l);
+    }
+  }
+  // Hand everything printed so far to the writer, and wait
+  // until it's written:
+  void flush() {
+    collectAll();
+    Handoff h = new Handoff(null);
+    full.add(h);
+    h.await();
+  }
+  private class Writer implements Runnable {
+    public void run() {
+      long nextFlush = System.nanoTime() +
+        TimeUnit.MILLISECONDS.toNanos(flushMillis);
+      while(!stopped) {
+        try {
+          Object o = full.poll(flushMillis, TimeUnit.MILLISECONDS);
+          if(o != null) process(o);
+        } catch(InterruptedException e) {
+          break;
+        }
+        if(System.nanoTime() - nextFlush >= 0) {
+          collectAll();
+          nextFlush = System.nanoTime() +
+            TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        }
+      }
+      drain(); // Whatever was queued before stop()
+    }
+  }
+} ///:~
@@ -5,21 +5,36 @@ package net.mindview.util;
 import java.io.*;
 
 public class Print {
+  // Each method goes through AsyncPrint once it is started.
   // Print with a newline:
   public static void print(Object obj) {
-    System.out.println(obj);
+    AsyncPrint.Line line = AsyncPrint.line();
+    if(line != null)
+      line.append(obj).end();
+    else
+      System.out.println(obj);
   }
   // Print a newline by itself:
   public static void print() {
-    System.out.println();
+    AsyncPrint.Line line = AsyncPrint.line();
+    if(line != null)
+      line.end();
+    else
+      System.out.println();
   }
   // Print with no line break:
   public static void printnb(Object obj) {
-    System.out.print(obj);
+    AsyncPrint.Line line = AsyncPrint.line();
+    if(line != null)
+      line.append(obj).endNoNewline();
+    else
+      System.out.print(obj);
   }
   // The new Java SE5 printf() (from C):
   public static PrintStream
   printf(String format, Object... args) {
-    return System.out.printf(format, args);
+    // The stream keeps chained calls in order too:
+    PrintStream out = AsyncPrint.stream();
+    return (out != null ? out : System.out).printf(format, args);
   }
 } ///:~
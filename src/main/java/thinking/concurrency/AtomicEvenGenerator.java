@@ -0,0 +1,31 @@
+package thinking.concurrency;
+//: concurrency/AtomicEvenGenerator.java
+// Atomic classes are occasionally useful in regular code.
+// next(int[]) reserves a whole run of even values with a
+// single addAndGet(), so callers pay one atomic operation
+// per block instead of one monitor per value.
+// {Args: 16 1024}
+import java.util.concurrent.atomic.*;
+
+public class AtomicEvenGenerator extends IntGenerator {
+  private AtomicInteger currentEvenValue =
+    new AtomicInteger(0);
+  public int next() {
+    return currentEvenValue.addAndGet(2);
+  }
+  // Reserve n even values; returns the first, the rest
+  // follow at steps of 2:
+  public int nextBlock(int n) {
+    return currentEvenValue.addAndGet(2 * n) - 2 * (n - 1);
+  }
+  public void next(int[] dst) {
+    int val = nextBlock(dst.length);
+    for(int i = 0; i < dst.length; i++, val += 2)
+      dst[i] = val;
+  }
+  public static void main(String[] args) {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+    EvenChecker.test(new AtomicEvenGenerator(), count, blockSize);
+  }
+} ///:~
@@ -0,0 +1,58 @@
+package thinking.concurrency;
+
+//: concurrency/ChannelInput.java
+// Reads input through an interruptible NIO channel, in chunks
+// of chunkSize, into a direct buffer leased from a
+// PooledBufferAllocator. Unlike a thread blocked
+// in InputStream.read(), one blocked here is released at once
+// by an interrupt (so by Future.cancel(true) or shutdownNow()):
+// the channel is closed and ClosedByInterruptException thrown.
+// That closes the underlying file descriptor too, so standard
+// input can't be read again afterwards.
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class ChannelInput implements Closeable {
+  public interface Chunk {
+    // data is only valid until accept() returns:
+    void accept(ByteBuffer data) throws IOException;
+  }
+  private final ReadableByteChannel channel;
+  private final PooledBufferAllocator pool;
+  private final int chunkSize;
+  public ChannelInput(ReadableByteChannel channel,
+    PooledBufferAllocator pool, int chunkSize) {
+    this.channel = channel;
+    this.pool = pool;
+    this.chunkSize = chunkSize;
+  }
+  // FileChannel on descriptor 0, rather than Channels.newChannel
+  // (System.in), whose read can't be broken by an interrupt:
+  public static ChannelInput stdin(PooledBufferAllocator pool,
+    int chunkSize) {
+    return new ChannelInput(
+      new FileInputStream(FileDescriptor.in).getChannel(),
+      pool, chunkSize);
+  }
+  // Hand each chunk read to c until end of input; returns the
+  // number of bytes read:
+  public long forEachChunk(Chunk c) throws IOException {
+    long total = 0;
+    PooledBufferAllocator.Lease lease = pool.allocate(chunkSize);
+    ByteBuffer buf = lease.buffer();
+    try {
+      while(channel.read(buf) >= 0) {
+        buf.flip();
+        total += buf.remaining();
+        if(buf.hasRemaining())
+          c.accept(buf);
+        buf.clear().limit(chunkSize); // Capacity may be larger
+      }
+    } finally {
+      lease.release();
+    }
+    return total;
+  }
+  public void close() throws IOException { channel.close(); }
+} ///:~
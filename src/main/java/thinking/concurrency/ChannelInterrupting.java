@@ -0,0 +1,77 @@
+package thinking.concurrency;
+
+//: concurrency/ChannelInterrupting.java
+// Interrupting.java's IOBlocked, reading standard input
+// through a ChannelInput instead: cancel(true) releases it,
+// so the executor shuts down without System.exit(). With
+// "count", reads all of standard input in 64K chunks instead.
+// {Args: count} < a large file
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+import static net.mindview.util.Print.*;
+
+class ChannelIOBlocked implements Runnable {
+  private final ChannelInput in;
+  public ChannelIOBlocked(ChannelInput in) { this.in = in; }
+  public void run() {
+    try {
+      print("Waiting for read():");
+      in.forEachChunk(new ChannelInput.Chunk() {
+        public void accept(ByteBuffer data) {
+          print("Read " + data.remaining() + " bytes");
+        }
+      });
+    } catch(ClosedByInterruptException e) {
+      print("Interrupted from blocked I/O");
+    } catch(IOException e) {
+      throw new RuntimeException(e);
+    }
+    print("Exiting ChannelIOBlocked.run()");
+  }
+}
+
+public class ChannelInterrupting {
+  static final PooledBufferAllocator pool = new PooledBufferAllocator();
+  static final int CHUNK = 64 * 1024;
+  static void count() throws IOException {
+    final long[] lines = new long[1];
+    long t0 = System.nanoTime();
+    long bytes = ChannelInput.stdin(pool, CHUNK).forEachChunk(
+      new ChannelInput.Chunk() {
+        public void accept(ByteBuffer data) {
+          for(int i = data.position(); i < data.limit(); i++)
+            if(data.get(i) == '\n') lines[0]++;
+        }
+      });
+    long millis = Math.max(1, (System.nanoTime() - t0) / 1000000);
+    printf("%d bytes, %d lines in %d ms (%d MB/s), %d KB of slabs%n",
+      bytes, lines[0], millis, bytes / 1000 / millis,
+      pool.slabBytes() / 1024);
+  }
+  public static void main(String[] args) throws Exception {
+    if(args.length > 0 && args[0].equals("count")) {
+      count();
+      return;
+    }
+    ExecutorService exec = ExecutorProvider.newExecutor();
+    ChannelIOBlocked r =
+      new ChannelIOBlocked(ChannelInput.stdin(pool, CHUNK));
+    Future<?> f = exec.submit(r);
+    TimeUnit.MILLISECONDS.sleep(100);
+    print("Interrupting " + r.getClass().getName());
+    f.cancel(true); // Interrupts if running
+    print("Interrupt sent to " + r.getClass().getName());
+    exec.shutdown();
+    if(exec.awaitTermination(1, TimeUnit.SECONDS))
+      print("Executor terminated, no System.exit() needed");
+  }
+} /* Output: (95% match)
+Waiting for read():
+Interrupting thinking.concurrency.ChannelIOBlocked
+Interrupted from blocked I/O
+Exiting ChannelIOBlocked.run()
+Interrupt sent to thinking.concurrency.ChannelIOBlocked
+Executor terminated, no System.exit() needed
+*///:~
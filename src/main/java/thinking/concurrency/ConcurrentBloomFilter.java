@@ -0,0 +1,65 @@
+package thinking.concurrency;
+
+//: concurrency/ConcurrentBloomFilter.java
+// A lock-free, register-blocked Bloom filter: all k bits for
+// a value lie in one 64-bit word of an AtomicLongArray, so a
+// put() is one compareAndSet() and a lookup is one read and
+// one cache miss. A "no" is always right; a "maybe" is wrong
+// with a probability set by bitsPerElement (about 3% at 8
+// bits, k = 4). It needs bits per element stored rather than
+// per possible value, so it suits sparse values, such as
+// long serials, where a bitmap over the whole range is too big.
+import java.util.concurrent.atomic.*;
+
+public class ConcurrentBloomFilter {
+  private final AtomicLongArray words;
+  private final int k;
+  public ConcurrentBloomFilter(long expected, int bitsPerElement,
+    int k) {
+    long n = Math.max(1, (expected * bitsPerElement + 63) >>> 6);
+    if(n > Integer.MAX_VALUE - 8)
+      throw new IllegalArgumentException("Too big: " + n + " words");
+    if(k < 1 || k > 10)
+      throw new IllegalArgumentException("k: " + k);
+    words = new AtomicLongArray((int)n);
+    this.k = k;
+  }
+  public ConcurrentBloomFilter(long expected) {
+    this(expected, 8, 4);
+  }
+  // Murmur3's 64-bit finalizer:
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    return h ^ (h >>> 33);
+  }
+  // High bits pick the word, low bits the k bits in it:
+  private int word(long h) {
+    return (int)(((h >>> 32) * words.length()) >>> 32);
+  }
+  private long mask(long h) {
+    long m = 0;
+    for(int j = 0; j < k; j++)
+      m |= 1L << ((h >>> (6 * j)) & 63);
+    return m;
+  }
+  // True if v was definitely not in the filter before:
+  public boolean put(long v) {
+    long h = mix(v);
+    int i = word(h);
+    long m = mask(h);
+    while(true) {
+      long w = words.get(i);
+      if((w & m) == m) return false;
+      if(words.compareAndSet(i, w, w | m)) return true;
+    }
+  }
+  public boolean mightContain(long v) {
+    long h = mix(v);
+    long m = mask(h);
+    return (words.get(word(h)) & m) == m;
+  }
+  public long sizeInBytes() { return 8L * words.length(); }
+} ///:~
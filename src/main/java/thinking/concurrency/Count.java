@@ -0,0 +1,22 @@
+package thinking.concurrency;
+
+//: concurrency/Count.java
+// The shared visitor count of OrnamentalGarden.
+import java.util.*;
+
+class Count {
+	private int count = 0;
+	private Random rand = new Random(47);
+	// Remove the synchronized keyword to see counting fail:
+	public synchronized int increment() {
+		int temp = count;
+		if(rand.nextBoolean()) // Yield half the time
+			Thread.yield();
+		return (count = ++temp);
+	}
+	public synchronized int value() { return count; }
+	// For callers that don't need the ticket number:
+	public void add() { increment(); }
+	// Does increment() hand out an exact sequence?
+	public boolean hasSequence() { return true; }
+} ///:~
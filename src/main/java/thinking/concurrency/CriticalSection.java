@@ -1,80 +1,10 @@
 //: concurrency/CriticalSection.java
 // Synchronizing blocks instead of entire methods. Also
 // demonstrates protection of a non-thread-safe class
-// with a thread-safe one.
+// with a thread-safe one. Pair and the PairManagers are in
+// their own files, for the other CriticalSection variants.
 package thinking.concurrency;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.*;
-import java.util.*;
-
-class Pair { // Not thread-safe
-  private int x, y;
-  public Pair(int x, int y) {
-    this.x = x;
-    this.y = y;
-  }
-  public Pair() { this(0, 0); }
-  public int getX() { return x; }
-  public int getY() { return y; }
-  public void incrementX() { x++; }
-  public void incrementY() { y++; }
-  public String toString() {
-    return "x: " + x + ", y: " + y;
-  }
-  public class PairValuesNotEqualException
-  extends RuntimeException {
-    public PairValuesNotEqualException() {
-      super("Pair values not equal: " + Pair.this);
-    }
-  }
-  // Arbitrary invariant -- both variables must be equal:
-  public void checkState() {
-    if(x != y)
-      throw new PairValuesNotEqualException();
-  }
-}
-
-// Protect a Pair inside a thread-safe class:
-abstract class PairManager {
-  AtomicInteger checkCounter = new AtomicInteger(0);
-  protected Pair p = new Pair();
-  private List<Pair> storage =
-    Collections.synchronizedList(new ArrayList<Pair>());
-  public synchronized Pair getPair() {
-    // Make a copy to keep the original safe:
-    return new Pair(p.getX(), p.getY());
-  }
-  // Assume this is a time consuming operation
-  protected void store(Pair p) {
-    storage.add(p);
-    try {
-      TimeUnit.MILLISECONDS.sleep(50);
-    } catch(InterruptedException ignore) {}
-  }
-  public abstract void increment();
-}
-
-// Synchronize the entire method:
-class PairManager1 extends PairManager {
-  public synchronized void increment() {
-    p.incrementX();
-    p.incrementY();
-    store(getPair());
-  }
-}
-
-// Use a critical section:
-class PairManager2 extends PairManager {
-  public void increment() {
-    Pair temp;
-    synchronized(this) {
-      p.incrementX();
-      p.incrementY();
-      temp = getPair();
-    }
-    store(temp);
-  }
-}
 
 class PairManipulator implements Runnable {
   private PairManager pm;
@@ -99,7 +29,7 @@ class PairChecker implements Runnable {
   public void run() {
     while(true) {
       pm.checkCounter.incrementAndGet();
-      pm.getPair().checkState();
+      pm.checkState();
     }
   }
 }
@@ -108,7 +38,7 @@ public class CriticalSection {
   // Test the two different approaches:
   static void
   testApproaches(PairManager pman1, PairManager pman2) {
-    ExecutorService exec = Executors.newCachedThreadPool();
+    ExecutorService exec = ExecutorProvider.newExecutor();
     PairManipulator
       pm1 = new PairManipulator(pman1),
       pm2 = new PairManipulator(pman2);
@@ -0,0 +1,80 @@
+package thinking.concurrency;
+
+//: concurrency/Entrance.java
+// One of OrnamentalGarden's entrances, counting its own
+// visitors and the shared total.
+import java.util.*;
+import java.util.concurrent.*;
+import net.mindview.util.*;
+import static net.mindview.util.Print.*;
+
+class Entrance implements Runnable {
+	private static Count count = new Count();
+	private static List<Entrance> entrances =
+			new ArrayList<Entrance>();
+	private int number = 0;
+	// Doesn't need synchronization to read:
+	private final int id;
+	private static volatile boolean canceled = false;
+	private static volatile boolean quiet = false;
+	// Atomic operation on a volatile field:
+	public static void cancel() { canceled = true; }
+	// Don't print each count (for very many entrances):
+	public static void setQuiet(boolean q) { quiet = q; }
+	// Choose the counter before creating any Entrance:
+	public static void setCount(Count c) { count = c; }
+	public Entrance(int id) {
+		this.id = id;
+		// Keep this task in a list. Also prevents
+		// garbage collection of dead tasks:
+		entrances.add(this);
+	}
+	public void run() {
+		while(!canceled) {
+			admit();
+			try {
+				TimeUnit.MILLISECONDS.sleep(100);
+			} catch(InterruptedException e) {
+				print("sleep interrupted");
+			}
+		}
+		if(!quiet)
+			print("Stopping " + this);
+	}
+	// One visitor comes in. A simulation calls this directly
+	// instead of running the task:
+	public void admit() {
+		synchronized(this) {
+			++number;
+		}
+		if(count.hasSequence()) {
+			int total = count.increment();
+			if(quiet) return;
+			AsyncPrint.Line line = AsyncPrint.line();
+			if(line != null) // Same text, without the garbage:
+				line.append("Entrance ").append(id).append(": ")
+					.append(getValue()).append(" Total: ")
+					.append(total).end();
+			else
+				print(this + " Total: " + total);
+		} else {
+			count.add();
+			if(!quiet)
+				print(this);
+		}
+	}
+	public int id() { return id; }
+	public synchronized int getValue() { return number; }
+	public String toString() {
+		return "Entrance " + id + ": " + getValue();
+	}
+	public static int getTotalCount() {
+		return count.value();
+	}
+	public static int sumEntrances() {
+		int sum = 0;
+		for(Entrance entrance : entrances)
+			sum += entrance.getValue();
+		return sum;
+	}
+} ///:~
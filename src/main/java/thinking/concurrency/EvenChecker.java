@@ -5,11 +5,20 @@ import java.util.concurrent.*;
 public class EvenChecker implements Runnable {
 	private IntGenerator generator;
 	private final int id;
-	public EvenChecker(IntGenerator g, int ident) {
+	private final int blockSize;
+	public EvenChecker(IntGenerator g, int ident, int blockSize) {
 		generator = g;
 		id = ident;
+		this.blockSize = blockSize;
+	}
+	public EvenChecker(IntGenerator g, int ident) {
+		this(g, ident, 1);
 	}
 	public void run() {
+		if(blockSize > 1) {
+			runBlocks();
+			return;
+		}
 		while(!generator.isCanceled()) {
 			int val = generator.next();
 			if(val % 2 != 0) {
@@ -18,12 +27,33 @@ public class EvenChecker implements Runnable {
 			}
 		}
 	}
+	// Validate a whole block at once: the low bit of the OR
+	// of all values is set only if one of them is odd.
+	private void runBlocks() {
+		int[] block = new int[blockSize];
+		while(!generator.isCanceled()) {
+			generator.next(block);
+			int bits = 0;
+			for(int val : block)
+				bits |= val;
+			if((bits & 1) != 0) {
+				for(int val : block)
+					if(val % 2 != 0)
+						System.out.println(val + " not even!");
+				generator.cancel();
+			}
+		}
+	}
 	// Test any type of IntGenerator:
 	public static void test(IntGenerator gp, int count) {
+		test(gp, count, 1);
+	}
+	// Each checker validates blockSize values per next() call:
+	public static void test(IntGenerator gp, int count, int blockSize) {
 		System.out.println("Press Control-C to exit");
-		ExecutorService exec = Executors.newCachedThreadPool();
+		ExecutorService exec = ExecutorProvider.newExecutor();
 		for(int i = 0; i < count; i++)
-			exec.execute(new EvenChecker(gp, i));
+			exec.execute(new EvenChecker(gp, i, blockSize));
 		exec.shutdown();
 	}
 	// Default value for count:
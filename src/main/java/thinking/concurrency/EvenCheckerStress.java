@@ -0,0 +1,125 @@
+package thinking.concurrency;
+
+//: concurrency/EvenCheckerStress.java
+// Stress harness for any IntGenerator: runs checkers for a
+// fixed time at 1, 2, 4 ... maxThreads threads and reports
+// calls/sec, per-call latency percentiles and the number of
+// odd values seen, as CSV or JSON lines. Unlike
+// EvenChecker.test() it keeps going after a violation.
+// {Args: thinking.concurrency.SynchronizedEvenGenerator 1000 8 csv}
+import java.util.concurrent.*;
+
+public class EvenCheckerStress {
+  static class Result {
+    final String generator;
+    final int threads;
+    long calls, violations, elapsedNanos;
+    final LatencyHistogram latency = new LatencyHistogram();
+    Result(String generator, int threads) {
+      this.generator = generator;
+      this.threads = threads;
+    }
+    double opsPerSec() { return calls * 1e9 / elapsedNanos; }
+    static String csvHeader() {
+      return "generator,threads,ops_per_sec,p50_ns,p90_ns,p99_ns," +
+        "p999_ns,max_ns,violations";
+    }
+    String csv() {
+      return String.format("%s,%d,%.0f,%d,%d,%d,%d,%d,%d",
+        generator, threads, opsPerSec(), latency.percentile(0.5),
+        latency.percentile(0.9), latency.percentile(0.99),
+        latency.percentile(0.999), latency.max(), violations);
+    }
+    String json() {
+      return String.format("{\"generator\":\"%s\",\"threads\":%d," +
+        "\"opsPerSec\":%.0f,\"p50Ns\":%d,\"p90Ns\":%d," +
+        "\"p99Ns\":%d,\"p999Ns\":%d,\"maxNs\":%d," +
+        "\"violations\":%d}",
+        generator, threads, opsPerSec(), latency.percentile(0.5),
+        latency.percentile(0.9), latency.percentile(0.99),
+        latency.percentile(0.999), latency.max(), violations);
+    }
+  }
+  static class Checker implements Runnable {
+    private final IntGenerator generator;
+    private final CountDownLatch start;
+    private volatile boolean stop = false;
+    // Only read after the executor has terminated:
+    final LatencyHistogram latency = new LatencyHistogram();
+    long calls, violations;
+    Checker(IntGenerator generator, CountDownLatch start) {
+      this.generator = generator;
+      this.start = start;
+    }
+    public void run() {
+      try {
+        start.await();
+      } catch(InterruptedException e) {
+        return;
+      }
+      while(!stop) {
+        long t0 = System.nanoTime();
+        int val = generator.next();
+        latency.record(System.nanoTime() - t0);
+        calls++;
+        if(val % 2 != 0)
+          violations++;
+      }
+    }
+  }
+  public static Result run(Class<? extends IntGenerator> type,
+    int nThreads, long millis) throws Exception {
+    IntGenerator generator;
+    try {
+      generator = type.getDeclaredConstructor().newInstance();
+    } catch(ReflectiveOperationException e) {
+      throw new IllegalArgumentException(
+        "Can't create " + type.getName(), e);
+    }
+    CountDownLatch start = new CountDownLatch(1);
+    Checker[] checkers = new Checker[nThreads];
+    ExecutorService exec = Executors.newFixedThreadPool(nThreads);
+    for(int i = 0; i < nThreads; i++)
+      exec.execute(checkers[i] = new Checker(generator, start));
+    exec.shutdown();
+    long t0 = System.nanoTime();
+    start.countDown();
+    TimeUnit.MILLISECONDS.sleep(millis);
+    for(Checker c : checkers)
+      c.stop = true;
+    exec.awaitTermination(10, TimeUnit.SECONDS);
+    Result r = new Result(type.getSimpleName(), nThreads);
+    r.elapsedNanos = System.nanoTime() - t0;
+    for(Checker c : checkers) {
+      r.calls += c.calls;
+      r.violations += c.violations;
+      r.latency.add(c.latency);
+    }
+    return r;
+  }
+  public static void main(String[] args) throws Exception {
+    if(args.length < 1) {
+      System.out.println("usage: java EvenCheckerStress " +
+        "generator-class [millis] [max-threads] [csv|json]");
+      System.exit(1);
+    }
+    Class<? extends IntGenerator> type =
+      Class.forName(args[0]).asSubclass(IntGenerator.class);
+    long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+    int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) :
+      Runtime.getRuntime().availableProcessors();
+    boolean json = args.length > 3 && args[3].equals("json");
+    run(type, maxThreads, millis / 2); // Warm up
+    if(!json)
+      System.out.println(Result.csvHeader());
+    for(int n : ThreadSweep.upTo(maxThreads)) {
+      Result r = run(type, n, millis);
+      System.out.println(json ? r.json() : r.csv());
+    }
+  }
+} /* Output: (Sample)
+generator,threads,ops_per_sec,p50_ns,p90_ns,p99_ns,p999_ns,max_ns,violations
+SynchronizedEvenGenerator,1,2113160,415,439,527,815,1414291,0
+SynchronizedEvenGenerator,2,121801,18431,19455,39935,55295,4442858,0
+SynchronizedEvenGenerator,4,187770,20479,32255,52223,81919,3729056,0
+*///:~
@@ -0,0 +1,95 @@
+package thinking.concurrency;
+
+//: concurrency/ExecutorProvider.java
+// One place to choose the executor the examples run on.
+// Pick it with -Dexecutor=cached|fixed|ring|workstealing|virtual
+// (and -Dexecutor.threads=n for fixed, ring and workstealing).
+// ring is fixed with a bounded RingBlockingQueue instead of an
+// unbounded linked queue; when it is full execute() throws
+// RejectedExecutionException. Like fixed, it only suits
+// examples that start no more never-ending tasks than
+// threads (plus 1024 waiting ones, which never run).
+// The default, cached, is what the examples always used.
+// Future.cancel(true) interrupts the task in every mode, so
+// the interruption demos behave the same; workstealing needs
+// a wrapper for that, since a ForkJoinPool's own futures
+// ignore mayInterruptIfRunning.
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ExecutorProvider {
+  public enum Mode { CACHED, FIXED, RING, WORKSTEALING, VIRTUAL }
+  public static Mode mode() {
+    String name = System.getProperty("executor", "cached");
+    try {
+      return Mode.valueOf(name.toUpperCase(Locale.ROOT));
+    } catch(IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+        "Unknown executor mode: " + name + ", expected one of " +
+        Arrays.toString(Mode.values()));
+    }
+  }
+  static int threads() {
+    return Integer.getInteger("executor.threads",
+      Runtime.getRuntime().availableProcessors());
+  }
+  public static ExecutorService newExecutor() {
+    return newExecutor(mode());
+  }
+  public static ExecutorService newExecutor(Mode mode) {
+    switch(mode) {
+      case FIXED:
+        return Executors.newFixedThreadPool(threads());
+      case RING:
+        return new ThreadPoolExecutor(threads(), threads(),
+          0L, TimeUnit.MILLISECONDS,
+          new RingBlockingQueue<Runnable>(1024),
+          new ThreadPoolExecutor.AbortPolicy());
+      case WORKSTEALING:
+        return new InterruptibleExecutor(new ForkJoinPool(threads()));
+      case VIRTUAL:
+        return newVirtualThreadExecutor();
+      default:
+        return Executors.newCachedThreadPool();
+    }
+  }
+  // Looked up reflectively so the code still builds for
+  // Java 8; virtual threads need a Java 21 runtime:
+  static ExecutorService newVirtualThreadExecutor() {
+    try {
+      Method m = Executors.class.getMethod(
+        "newVirtualThreadPerTaskExecutor");
+      return (ExecutorService)m.invoke(null);
+    } catch(NoSuchMethodException e) {
+      throw new UnsupportedOperationException(
+        "Virtual threads need Java 21 or later, running " +
+        System.getProperty("java.version"));
+    } catch(IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch(InvocationTargetException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+  // submit() returns FutureTasks, whose cancel(true) does
+  // interrupt the running thread:
+  static class InterruptibleExecutor extends AbstractExecutorService {
+    private final ExecutorService delegate;
+    InterruptibleExecutor(ExecutorService delegate) {
+      this.delegate = delegate;
+    }
+    public void execute(Runnable command) {
+      delegate.execute(command);
+    }
+    public void shutdown() { delegate.shutdown(); }
+    public List<Runnable> shutdownNow() {
+      return delegate.shutdownNow();
+    }
+    public boolean isShutdown() { return delegate.isShutdown(); }
+    public boolean isTerminated() { return delegate.isTerminated(); }
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+    throws InterruptedException {
+      return delegate.awaitTermination(timeout, unit);
+    }
+  }
+} ///:~
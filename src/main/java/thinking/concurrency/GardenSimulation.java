@@ -0,0 +1,113 @@
+package thinking.concurrency;
+
+//: concurrency/GardenSimulation.java
+// OrnamentalGarden as a discrete-event simulation. Instead of
+// a thread sleeping 100 ms per Entrance, each Entrance is an
+// event in a priority queue ordered by its next due time;
+// running the earliest event calls Entrance.admit() and
+// queues it again 100 ms later. Entrances are split over one
+// queue and thread per core (shards). Entrances don't affect
+// each other's timing, so shards need not stay in step.
+// "virtual" time jumps straight to the next event; "scaled"
+// time waits for the wall clock, running 'scale' times faster
+// than real time, and reports how far it fell behind.
+// {Args: 100000 virtual}
+// {Args: 100000 scaled 1} runs in real time
+// {Args: 100000 virtual striped}
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import static net.mindview.util.Print.*;
+
+public class GardenSimulation {
+	static final long PERIOD = 100;   // Virtual ms between visitors
+	static final long DURATION = 3000; // Virtual ms, as in OrnamentalGarden
+	static class Event implements Comparable<Event> {
+		final Entrance entrance;
+		long time;
+		Event(Entrance entrance, long time) {
+			this.entrance = entrance;
+			this.time = time;
+		}
+		public int compareTo(Event o) {
+			if(time != o.time)
+				return time < o.time ? -1 : 1;
+			return Integer.compare(entrance.id(), o.entrance.id());
+		}
+	}
+	static class Shard implements Runnable {
+		private final PriorityQueue<Event> queue = new PriorityQueue<Event>();
+		private final double scale; // 0 for virtual time
+		private long wallStart;
+		long events = 0, maxLagNanos = 0;
+		Shard(double scale) { this.scale = scale; }
+		void add(Entrance e, long firstTime) {
+			queue.add(new Event(e, firstTime));
+		}
+		void start(long wallStart) { this.wallStart = wallStart; }
+		public void run() {
+			Event ev;
+			while((ev = queue.poll()) != null && ev.time < DURATION) {
+				if(scale > 0)
+					waitFor(ev.time);
+				ev.entrance.admit();
+				events++;
+				ev.time += PERIOD; // Reuse the event
+				queue.add(ev);
+			}
+		}
+		private void waitFor(long time) {
+			long due = wallStart + (long)(time * 1e6 / scale);
+			long now;
+			while((now = System.nanoTime()) < due)
+				LockSupport.parkNanos(due - now);
+			maxLagNanos = Math.max(maxLagNanos, now - due);
+		}
+	}
+	public static void main(String[] args) throws Exception {
+		int entrances = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		boolean scaled = args.length > 1 && args[1].equals("scaled");
+		double scale = scaled && args.length > 2 ?
+				Double.parseDouble(args[2]) : scaled ? 10 : 0;
+		if(Arrays.asList(args).contains("striped"))
+			Entrance.setCount(new StripedCount(false));
+		else if(Arrays.asList(args).contains("sequenced"))
+			Entrance.setCount(new StripedCount(true));
+		Entrance.setQuiet(true);
+		int nShards = Runtime.getRuntime().availableProcessors();
+		Shard[] shards = new Shard[nShards];
+		for(int i = 0; i < nShards; i++)
+			shards[i] = new Shard(scale);
+		// Stagger the first visitors over one period:
+		Random rand = new Random(47);
+		for(int i = 0; i < entrances; i++)
+			shards[i % nShards].add(new Entrance(i), rand.nextInt((int)PERIOD));
+		Thread[] threads = new Thread[nShards];
+		long start = System.nanoTime();
+		for(int i = 0; i < nShards; i++) {
+			shards[i].start(start);
+			threads[i] = new Thread(shards[i], "Shard-" + i);
+			threads[i].start();
+		}
+		long events = 0, maxLag = 0;
+		for(int i = 0; i < nShards; i++) {
+			threads[i].join();
+			events += shards[i].events;
+			maxLag = Math.max(maxLag, shards[i].maxLagNanos);
+		}
+		long wall = System.nanoTime() - start;
+		printf("%d entrances, %d shards, %s time: %d events in %d ms " +
+				"(%.1f M events/s)%n", entrances, nShards,
+				scaled ? "scaled x" + scale : "virtual",
+				events, wall / 1000000, events * 1e3 / wall);
+		if(scaled)
+			printf("Fell behind the scaled clock by up to %.1f ms%n",
+					maxLag / 1e6);
+		print("Total: " + Entrance.getTotalCount());
+		print("Sum of Entrances: " + Entrance.sumEntrances());
+	}
+} /* Output: (Sample)
+100000 entrances, 1 shards, virtual time: 3000000 events in 2366 ms (1.3 M events/s)
+Total: 3000000
+Sum of Entrances: 3000000
+*///:~
@@ -0,0 +1,176 @@
+package thinking.concurrency;
+
+//: concurrency/HashedTimingWheel.java
+// A hashed timing wheel (Varghese & Lauck): one thread
+// advances through wheelSize buckets, one per tick. A timeout
+// goes into the bucket its deadline hashes to, with the
+// number of full turns still to wait, so schedule() and
+// cancel() are O(1) however many timeouts are pending.
+// Timeouts run up to one tick late. Tasks run on the
+// wheel thread and should be short.
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class HashedTimingWheel {
+  private static final int INIT = 0, CANCELLED = 1, EXPIRED = 2;
+  private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+    AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+  public final class Timeout {
+    private final Runnable task;
+    private final long deadline; // Nanos since the wheel started
+    private long remainingRounds;
+    volatile int state = INIT; // Via STATE, which needs access
+    // Bucket list links, wheel thread only:
+    private Bucket bucket;
+    private Timeout prev, next;
+    Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+    // False if it already ran or was already cancelled:
+    public boolean cancel() {
+      if(!STATE.compareAndSet(this, INIT, CANCELLED))
+        return false;
+      cancelled.add(this); // Unlinked by the wheel thread
+      return true;
+    }
+    public boolean isCancelled() { return state == CANCELLED; }
+    public boolean isExpired() { return state == EXPIRED; }
+  }
+  // Doubly linked so a cancelled Timeout unlinks in O(1):
+  private final class Bucket {
+    private Timeout head, tail;
+    void add(Timeout t) {
+      t.bucket = this;
+      if(head == null) {
+        head = tail = t;
+      } else {
+        tail.next = t;
+        t.prev = tail;
+        tail = t;
+      }
+    }
+    Timeout remove(Timeout t) {
+      Timeout next = t.next;
+      if(t.prev != null) t.prev.next = next;
+      if(t.next != null) t.next.prev = t.prev;
+      if(t == head) head = next;
+      if(t == tail) tail = t.prev;
+      t.prev = t.next = null;
+      t.bucket = null;
+      pending.decrementAndGet();
+      return next;
+    }
+    void expire(long now) {
+      Timeout t = head;
+      while(t != null) {
+        if(t.remainingRounds <= 0) {
+          Timeout next = remove(t);
+          if(STATE.compareAndSet(t, INIT, EXPIRED))
+            runTask(t.task);
+          t = next;
+        } else if(t.isCancelled()) {
+          t = remove(t);
+        } else {
+          t.remainingRounds--;
+          t = t.next;
+        }
+      }
+    }
+  }
+  private final long tickNanos;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final Queue<Timeout> scheduled =
+    new ConcurrentLinkedQueue<Timeout>();
+  private final Queue<Timeout> cancelled =
+    new ConcurrentLinkedQueue<Timeout>();
+  private final AtomicLong pending = new AtomicLong(0);
+  private final long startTime = System.nanoTime();
+  private final Thread worker;
+  private volatile boolean running = true;
+  public HashedTimingWheel(long tickDuration, TimeUnit unit,
+    int wheelSize) {
+    tickNanos = Math.max(unit.toNanos(tickDuration), 1);
+    int size = Integer.highestOneBit(Math.max(wheelSize, 1) * 2 - 1);
+    wheel = new Bucket[size];
+    for(int i = 0; i < size; i++)
+      wheel[i] = new Bucket();
+    mask = size - 1;
+    worker = new Thread(new Worker(), "HashedTimingWheel");
+    worker.setDaemon(true);
+    worker.start();
+  }
+  public HashedTimingWheel() {
+    this(10, TimeUnit.MILLISECONDS, 512);
+  }
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    if(!running)
+      throw new RejectedExecutionException("Timing wheel stopped");
+    Timeout t = new Timeout(task,
+      System.nanoTime() - startTime + unit.toNanos(delay));
+    pending.incrementAndGet();
+    scheduled.add(t); // Placed in its bucket on the next tick
+    return t;
+  }
+  // Timeouts neither run nor cancelled yet:
+  public long pending() { return pending.get(); }
+  public void stop() throws InterruptedException {
+    running = false;
+    worker.interrupt();
+    worker.join();
+  }
+  private void runTask(Runnable task) {
+    try {
+      task.run();
+    } catch(RuntimeException e) {
+      // Don't let one task stop the wheel:
+      e.printStackTrace();
+    }
+  }
+  private class Worker implements Runnable {
+    private long tick = 0;
+    public void run() {
+      while(running) {
+        long now = waitForNextTick();
+        if(now < 0) break; // Interrupted by stop()
+        Timeout t;
+        while((t = cancelled.poll()) != null)
+          if(t.bucket != null)
+            t.bucket.remove(t);
+        transfer();
+        wheel[(int)(tick & mask)].expire(now);
+        tick++;
+      }
+    }
+    private void transfer() {
+      Timeout t;
+      while((t = scheduled.poll()) != null) {
+        if(t.isCancelled()) {
+          pending.decrementAndGet();
+          continue;
+        }
+        // Bucket 'due' runs at (due + 1) ticks, after the
+        // deadline; never pick a bucket already passed:
+        long due = Math.max(t.deadline / tickNanos, tick);
+        t.remainingRounds = (due - tick) / wheel.length;
+        wheel[(int)(due & mask)].add(t);
+      }
+    }
+    private long waitForNextTick() {
+      long deadline = (tick + 1) * tickNanos;
+      while(true) {
+        long now = System.nanoTime() - startTime;
+        long sleep = deadline - now;
+        if(sleep <= 0)
+          return now;
+        try {
+          TimeUnit.NANOSECONDS.sleep(sleep);
+        } catch(InterruptedException e) {
+          return -1;
+        }
+      }
+    }
+  }
+} ///:~
@@ -4,6 +4,12 @@ package thinking.concurrency;
 public abstract class IntGenerator {
 	private volatile boolean canceled = false;
 	public abstract int next();
+	// Fill dst with successive values. Generators that can
+	// reserve a whole run in one step override this:
+	public void next(int[] dst) {
+		for(int i = 0; i < dst.length; i++)
+			dst[i] = next();
+	}
 	// Allow this to be canceled:
 	public void cancel() { canceled = true; }
 	public boolean isCanceled() { return canceled; }
@@ -0,0 +1,92 @@
+package thinking.concurrency;
+
+//: concurrency/IntWindowSet.java
+// Remembers the last 'window' distinct ints added, with O(1)
+// add and contains. Values live in a ring (for eviction order)
+// and in an open-addressing hash table with linear probing
+// (for lookup), both plain int[]s, so nothing is boxed.
+// Costs about 8-9 bytes per element: a window of 10^8 is
+// roughly 0.9 GB, 10^6 about 9 MB. Not thread-safe; see
+// StripedIntWindowSet.
+
+public class IntWindowSet {
+  private static final int EMPTY = 0; // Table marker
+  private final int[] ring;
+  private final int[] table;
+  private final int mask;
+  private final int shift;
+  private int head = 0; // Oldest element once the ring is full
+  private int size = 0;
+  private boolean hasEmpty = false; // Is EMPTY itself stored?
+  public IntWindowSet(int window) {
+    if(window < 1)
+      throw new IllegalArgumentException("window: " + window);
+    ring = new int[window];
+    // Power of two with load factor <= 0.75:
+    int capacity = Integer.highestOneBit(
+      (int)Math.min((window * 4L + 2) / 3, 1 << 30));
+    if(capacity < (window * 4L + 2) / 3)
+      capacity <<= 1;
+    table = new int[Math.max(capacity, 2)];
+    mask = table.length - 1;
+    shift = 32 - Integer.numberOfTrailingZeros(table.length);
+  }
+  public int window() { return ring.length; }
+  public int size() { return size; }
+  // Fibonacci hashing spreads consecutive serials:
+  private int slot(int val) {
+    return (val * 0x9E3779B9) >>> shift & mask;
+  }
+  public boolean contains(int val) {
+    if(val == EMPTY) return hasEmpty;
+    for(int i = slot(val); ; i = (i + 1) & mask) {
+      int t = table[i];
+      if(t == val) return true;
+      if(t == EMPTY) return false;
+    }
+  }
+  // Adds val unless it is already in the window; returns
+  // false for a duplicate. Evicts the oldest element when full.
+  public boolean add(int val) {
+    if(contains(val)) return false;
+    if(size == ring.length) {
+      remove(ring[head]);
+      size--;
+    }
+    insert(val);
+    ring[head] = val;
+    head = (head + 1) % ring.length;
+    size++;
+    return true;
+  }
+  private void insert(int val) {
+    if(val == EMPTY) {
+      hasEmpty = true;
+      return;
+    }
+    int i = slot(val);
+    while(table[i] != EMPTY)
+      i = (i + 1) & mask;
+    table[i] = val;
+  }
+  private void remove(int val) {
+    if(val == EMPTY) {
+      hasEmpty = false;
+      return;
+    }
+    int i = slot(val);
+    while(table[i] != val)
+      i = (i + 1) & mask;
+    // Backward-shift deletion, so no tombstones build up:
+    for(int j = (i + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+      int home = slot(table[j]);
+      // Move table[j] into the hole unless its home lies
+      // cyclically in (i, j]:
+      if(((j - home) & mask) >= ((j - i) & mask)) {
+        table[i] = table[j];
+        i = j;
+      }
+    }
+    table[i] = EMPTY;
+  }
+} ///:~
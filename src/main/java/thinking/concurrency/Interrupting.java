@@ -56,7 +56,7 @@ class SynchronizedBlocked implements Runnable {
 
 public class Interrupting {
   private static ExecutorService exec =
-    Executors.newCachedThreadPool();
+    ExecutorProvider.newExecutor();
   static void test(Runnable r) throws InterruptedException{
     Future<?> f = exec.submit(r);
     TimeUnit.MILLISECONDS.sleep(100);
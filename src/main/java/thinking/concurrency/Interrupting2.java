@@ -7,7 +7,8 @@ import java.util.concurrent.locks.*;
 import static net.mindview.util.Print.*;
 
 class BlockedMutex {
-  private Lock lock = new ReentrantLock();
+  // A drop-in for ReentrantLock that also keeps statistics:
+  private Lock lock = new ProfiledLock();
   public BlockedMutex() {
     // Acquire it right away, to demonstrate interruption
     // of a task blocked on a ReentrantLock:
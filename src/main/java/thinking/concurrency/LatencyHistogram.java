@@ -0,0 +1,62 @@
+package thinking.concurrency;
+
+//: concurrency/LatencyHistogram.java
+// A fixed-size, log-linear histogram of non-negative longs
+// (typically nanoseconds). Every power of two is split into
+// 32 linear sub-buckets, so any value is reported to within
+// about 3%. All storage is allocated up front and record()
+// never allocates. Not thread-safe: give each thread its
+// own and add() them together afterwards.
+
+public class LatencyHistogram {
+  private static final int SUB_BITS = 5;
+  private static final int SUB = 1 << SUB_BITS;
+  private final long[] counts = new long[(64 - SUB_BITS) * SUB];
+  private long total = 0;
+  private long max = 0;
+  private static int index(long v) {
+    if(v < SUB) return (int)v;
+    int exp = 63 - Long.numberOfLeadingZeros(v);
+    int sub = (int)(v >>> (exp - SUB_BITS)) & (SUB - 1);
+    return (exp - SUB_BITS + 1) * SUB + sub;
+  }
+  // Largest value that falls in bucket i:
+  private static long highest(int i) {
+    if(i < SUB) return i;
+    int exp = i / SUB + SUB_BITS - 1;
+    long low = (long)(SUB + i % SUB) << (exp - SUB_BITS);
+    return low + (1L << (exp - SUB_BITS)) - 1;
+  }
+  public void record(long value) {
+    if(value < 0) value = 0;
+    counts[index(value)]++;
+    total++;
+    if(value > max) max = value;
+  }
+  public void add(LatencyHistogram other) {
+    for(int i = 0; i < counts.length; i++)
+      counts[i] += other.counts[i];
+    total += other.total;
+    max = Math.max(max, other.max);
+  }
+  public long count() { return total; }
+  public long max() { return max; }
+  // Value at quantile q (0.0 to 1.0):
+  public long percentile(double q) {
+    if(total == 0) return 0;
+    long rank = (long)Math.ceil(q * total);
+    if(rank < 1) rank = 1;
+    long seen = 0;
+    for(int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if(seen >= rank)
+        return Math.min(highest(i), max);
+    }
+    return max;
+  }
+  public void reset() {
+    java.util.Arrays.fill(counts, 0);
+    total = 0;
+    max = 0;
+  }
+} ///:~
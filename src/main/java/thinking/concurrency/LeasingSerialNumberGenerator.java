@@ -0,0 +1,37 @@
+package thinking.concurrency;
+
+//: concurrency/LeasingSerialNumberGenerator.java
+// Each thread leases a contiguous block of serials with a
+// single atomic add on a shared counter, then hands them
+// out from its own block with no shared writes at all.
+// Serials are unique but only increase per thread.
+import java.util.concurrent.atomic.*;
+
+public class LeasingSerialNumberGenerator {
+  public static final int BLOCK_SIZE = 1024;
+  // Next unleased serial; a long so we never wrap at 2^31:
+  private static final AtomicLong nextBlock = new AtomicLong(0);
+  private static final class Block {
+    long next, end; // [next, end) belongs to this thread
+  }
+  private static final ThreadLocal<Block> block =
+    new ThreadLocal<Block>() {
+      protected Block initialValue() { return new Block(); }
+    };
+  public static long nextLongSerialNumber() {
+    Block b = block.get();
+    if(b.next == b.end) {
+      // The only shared write, once per BLOCK_SIZE serials:
+      b.next = nextBlock.getAndAdd(BLOCK_SIZE);
+      b.end = b.next + BLOCK_SIZE;
+    }
+    return b.next++;
+  }
+  // Same contract as SerialNumberGenerator.nextSerialNumber(),
+  // including its wraparound after 2^31 serials:
+  public static int nextSerialNumber() {
+    return (int)nextLongSerialNumber();
+  }
+  // Serials leased so far (an upper bound on those issued):
+  public static long leased() { return nextBlock.get(); }
+} ///:~
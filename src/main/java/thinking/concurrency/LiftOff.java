@@ -1,11 +1,14 @@
 package thinking.concurrency;
 //: concurrency/LiftOff.java
 // Demonstration of the Runnable interface.
+import java.util.concurrent.atomic.*;
 
 public class LiftOff implements Runnable {
   protected int countDown = 10; // Default
-  private static int taskCount = 0;
-  private final int id = taskCount++;
+  // LiftOffs may be created from several threads at once:
+  private static final AtomicInteger taskCount =
+    new AtomicInteger(0);
+  private final int id = taskCount.getAndIncrement();
   public LiftOff() {}
   public LiftOff(int countDown) {
     this.countDown = countDown;
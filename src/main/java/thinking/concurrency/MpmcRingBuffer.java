@@ -0,0 +1,273 @@
+package thinking.concurrency;
+
+//: concurrency/MpmcRingBuffer.java
+// A bounded multi-producer, multi-consumer queue on a
+// pre-allocated power-of-two array (Dmitry Vyukov's design).
+// Every slot carries a sequence number saying whose turn it
+// is: a producer may fill slot i on lap n once its sequence
+// is i + n * capacity, a consumer may empty it once it is one
+// more than that. Producers and consumers each claim a
+// position with one CAS on their own counter, so they never
+// lock and never allocate. offer() and poll() don't wait;
+// RingBlockingQueue adds waiting through a WaitStrategy.
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+public class MpmcRingBuffer<E> {
+  // Padding keeps head and tail off each other's cache line,
+  // so producers and consumers don't slow each other down:
+  @SuppressWarnings("unused")
+  static final class PaddedAtomicLong extends AtomicLong {
+    private static final long serialVersionUID = 1L;
+    long p1, p2, p3, p4, p5, p6, p7;
+  }
+  private final PaddedAtomicLong tail = new PaddedAtomicLong();
+  private final PaddedAtomicLong head = new PaddedAtomicLong();
+  private final AtomicLongArray sequences;
+  private final Object[] buffer;
+  private final int mask;
+  // Capacity is rounded up to a power of two:
+  public MpmcRingBuffer(int capacity) {
+    if(capacity < 1 || capacity > 1 << 30)
+      throw new IllegalArgumentException("capacity: " + capacity);
+    int size = Integer.highestOneBit(capacity * 2 - 1);
+    buffer = new Object[size];
+    sequences = new AtomicLongArray(size);
+    for(int i = 0; i < size; i++)
+      sequences.set(i, i);
+    mask = size - 1;
+  }
+  public int capacity() { return buffer.length; }
+  public boolean offer(E e) {
+    if(e == null) throw new NullPointerException();
+    while(true) {
+      long pos = tail.get();
+      int i = (int)pos & mask;
+      long diff = sequences.get(i) - pos;
+      if(diff == 0) {
+        if(tail.compareAndSet(pos, pos + 1)) {
+          buffer[i] = e;
+          sequences.lazySet(i, pos + 1); // Publishes buffer[i]
+          return true;
+        }
+      } else if(diff < 0) {
+        return false; // Last lap's item still there: full
+      }
+      // Otherwise another producer got here first; retry
+    }
+  }
+  public E poll() {
+    while(true) {
+      long pos = head.get();
+      int i = (int)pos & mask;
+      long diff = sequences.get(i) - (pos + 1);
+      if(diff == 0) {
+        if(head.compareAndSet(pos, pos + 1))
+          return take(i, pos);
+      } else if(diff < 0) {
+        return null; // Not filled yet: empty
+      }
+    }
+  }
+  @SuppressWarnings("unchecked")
+  private E take(int i, long pos) {
+    E e = (E)buffer[i];
+    buffer[i] = null;
+    sequences.lazySet(i, pos + buffer.length); // Free for next lap
+    return e;
+  }
+  @SuppressWarnings("unchecked")
+  public E peek() {
+    long pos = head.get();
+    int i = (int)pos & mask;
+    return sequences.get(i) == pos + 1 ? (E)buffer[i] : null;
+  }
+  // For weakly consistent iteration: the item at position
+  // pos, or null if it was taken or isn't there yet:
+  @SuppressWarnings("unchecked")
+  E at(long pos) {
+    int i = (int)pos & mask;
+    if(sequences.get(i) != pos + 1) return null;
+    E e = (E)buffer[i];
+    return sequences.get(i) == pos + 1 ? e : null;
+  }
+  long headPosition() { return head.get(); }
+  long tailPosition() { return tail.get(); }
+  // Would poll() find an item now? Rereads head so the
+  // answer belongs to one consistent position:
+  boolean canPoll() {
+    while(true) {
+      long pos = head.get();
+      boolean ready = sequences.get((int)pos & mask) == pos + 1;
+      if(head.get() == pos) return ready;
+    }
+  }
+  // Would offer() find a free slot now?
+  boolean canOffer() {
+    while(true) {
+      long pos = tail.get();
+      boolean free = sequences.get((int)pos & mask) == pos;
+      if(tail.get() == pos) return free;
+    }
+  }
+  // Claim up to max ready items with a single CAS and add
+  // them to c, oldest first. All n slots are emptied before
+  // c sees any item, so a throwing c can't leave claimed
+  // slots that producers would wait on forever:
+  public int drain(Collection<? super E> c, int max) {
+    max = Math.min(max, buffer.length);
+    while(true) {
+      long pos = head.get();
+      int n = 0;
+      while(n < max &&
+            sequences.get((int)(pos + n) & mask) == pos + n + 1)
+        n++;
+      if(n == 0) return 0;
+      // head only moves forward, so if it is still pos no one
+      // else has taken any of these n slots:
+      if(head.compareAndSet(pos, pos + n)) {
+        Object[] batch = new Object[n];
+        for(int k = 0; k < n; k++)
+          batch[k] = take((int)(pos + k) & mask, pos + k);
+        for(int k = 0; k < n; k++) {
+          @SuppressWarnings("unchecked")
+          E e = (E)batch[k];
+          c.add(e);
+        }
+        return n;
+      }
+    }
+  }
+  public int size() {
+    while(true) {
+      long h = head.get(), t = tail.get();
+      if(h == head.get()) // Consistent pair of reads
+        return (int)Math.max(0, Math.min(t - h, buffer.length));
+    }
+  }
+  public boolean isEmpty() { return size() == 0; }
+  // How a thread waits for a full or empty ring to change.
+  // idle() is called after each failed attempt and may return
+  // early at any time; the caller retries, and gives up on
+  // its own deadline. ready says whether a retry would now
+  // succeed. signalAll() is called after each change.
+  public interface WaitStrategy {
+    void idle(int attempt, long maxNanos, BooleanSupplier ready)
+      throws InterruptedException;
+    void signalAll();
+  }
+  public enum Wait {
+    // Lowest latency, burns a core per waiting thread:
+    BUSY_SPIN {
+      public WaitStrategy create() {
+        return new WaitStrategy() {
+          public void idle(int attempt, long maxNanos,
+            BooleanSupplier ready) throws InterruptedException {
+            checkInterrupt();
+          }
+          public void signalAll() {}
+        };
+      }
+    },
+    YIELDING {
+      public WaitStrategy create() {
+        return new WaitStrategy() {
+          public void idle(int attempt, long maxNanos,
+            BooleanSupplier ready) throws InterruptedException {
+            checkInterrupt();
+            if(attempt > SPINS) Thread.yield();
+          }
+          public void signalAll() {}
+        };
+      }
+    },
+    // Spin, then yield, then park for up to 100us at a time:
+    SLEEPING {
+      public WaitStrategy create() {
+        return new WaitStrategy() {
+          public void idle(int attempt, long maxNanos,
+            BooleanSupplier ready) throws InterruptedException {
+            checkInterrupt();
+            if(attempt > 2 * SPINS)
+              LockSupport.parkNanos(Math.min(maxNanos, 100000));
+            else if(attempt > SPINS)
+              Thread.yield();
+          }
+          public void signalAll() {}
+        };
+      }
+    },
+    // Spin briefly, then sleep on a Condition until ready or
+    // the caller's deadline. A waiter registers, then rechecks
+    // the ring under the lock; signalAll() bumps the signal
+    // count before looking for waiters, and signals under the
+    // same lock. So either the waiter sees the change or the
+    // signaller sees the waiter: no wakeup is lost. (The
+    // ring publishes with lazySet, which alone wouldn't order
+    // against the read of waiters; the volatile increment of
+    // signals does.) signalAll() only locks when someone waits.
+    BLOCKING {
+      public WaitStrategy create() {
+        return new WaitStrategy() {
+          private final ReentrantLock lock = new ReentrantLock();
+          private final Condition changed = lock.newCondition();
+          private final AtomicInteger waiters = new AtomicInteger();
+          private final AtomicLong signals = new AtomicLong();
+          public void idle(int attempt, long maxNanos,
+            BooleanSupplier ready) throws InterruptedException {
+            checkInterrupt();
+            if(attempt <= SPINS) return;
+            lock.lockInterruptibly();
+            try {
+              waiters.incrementAndGet();
+              try {
+                long seen = signals.get();
+                if(ready.getAsBoolean()) return;
+                long nanos = maxNanos;
+                while(signals.get() == seen && nanos > 0)
+                  nanos = changed.awaitNanos(nanos);
+              } finally {
+                waiters.decrementAndGet();
+              }
+            } finally {
+              lock.unlock();
+            }
+          }
+          public void signalAll() {
+            signals.incrementAndGet();
+            if(waiters.get() == 0) return;
+            lock.lock();
+            try {
+              changed.signalAll();
+            } finally {
+              lock.unlock();
+            }
+          }
+        };
+      }
+    };
+    static final int SPINS = 100;
+    public abstract WaitStrategy create();
+    static void checkInterrupt() throws InterruptedException {
+      if(Thread.interrupted())
+        throw new InterruptedException();
+    }
+  }
+  public static void main(String[] args) {
+    MpmcRingBuffer<String> ring = new MpmcRingBuffer<String>(3);
+    System.out.println("capacity " + ring.capacity());
+    for(String s : "a b c d e".split(" "))
+      System.out.print(s + ":" + ring.offer(s) + " ");
+    List<String> batch = new ArrayList<String>();
+    System.out.println("\ndrained " + ring.drain(batch, 3) + " " + batch);
+    System.out.println("poll " + ring.poll() + ", then " + ring.poll());
+  }
+} /* Output:
+capacity 4
+a:true b:true c:true d:true e:false
+drained 3 [a, b, c]
+poll d, then null
+*///:~
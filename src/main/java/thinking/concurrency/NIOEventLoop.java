@@ -0,0 +1,203 @@
+package thinking.concurrency;
+
+//: concurrency/NIOEventLoop.java
+// One thread multiplexing reads on many non-blocking
+// SocketChannels with a Selector, instead of parking one
+// thread per channel in a blocking read() as NIOBlocked does.
+// Reading a channel ends the way it does for NIOBlocked:
+// Registration.cancel() plays the part of Future.cancel(true)
+// and reports ClosedByInterruptException; closing the channel
+// from another thread reports AsynchronousCloseException.
+// A handler that throws ends only its own channel, with the
+// exception as the cause; the loop carries on.
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class NIOEventLoop implements Runnable {
+  public interface ReadHandler {
+    // On the loop thread; data is only valid during the call:
+    void read(SocketChannel sc, ByteBuffer data);
+    // Exactly once, even for channels registered after the
+    // loop stopped: null at end of stream, otherwise why
+    // reading stopped:
+    void closed(SocketChannel sc, IOException cause);
+  }
+  public class Registration {
+    private final SocketChannel sc;
+    private final ReadHandler handler;
+    private SelectionKey key;      // Loop thread only
+    private boolean done = false;  // Loop thread only
+    Registration(SocketChannel sc, ReadHandler handler) {
+      this.sc = sc;
+      this.handler = handler;
+    }
+    public SocketChannel channel() { return sc; }
+    // Stop reading and close the channel, as an interrupt
+    // does to a blocked read:
+    public void cancel() {
+      execute(new Runnable() {
+        public void run() {
+          finish(Registration.this, new ClosedByInterruptException());
+        }
+      });
+    }
+  }
+  // How often to look for channels closed by other threads;
+  // closing a channel cancels its key but doesn't wake select():
+  private static final long SWEEP_MILLIS = 100;
+  private final Selector selector;
+  private final Queue<Runnable> tasks =
+    new ConcurrentLinkedQueue<Runnable>();
+  private final Set<Registration> registrations =
+    new HashSet<Registration>(); // Loop thread only
+  // Once set, tasks run on the thread that submits them,
+  // holding the tasks lock:
+  private volatile boolean stopped = false;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+  public NIOEventLoop() throws IOException {
+    selector = Selector.open();
+  }
+  public Registration register(final SocketChannel sc,
+    ReadHandler handler) throws IOException {
+    sc.configureBlocking(false);
+    final Registration r = new Registration(sc, handler);
+    // Selector registration must happen on the loop thread,
+    // or it would wait for the current select() to return:
+    execute(new Runnable() {
+      public void run() {
+        if(stopped) {
+          finish(r, new ClosedByInterruptException());
+          return;
+        }
+        try {
+          r.key = sc.register(selector, SelectionKey.OP_READ, r);
+          registrations.add(r);
+        } catch(ClosedChannelException e) {
+          finish(r, new AsynchronousCloseException());
+        }
+      }
+    });
+    return r;
+  }
+  private void execute(Runnable task) {
+    tasks.add(task);
+    if(!stopped) {
+      selector.wakeup();
+      return;
+    }
+    synchronized(tasks) { runTasks(); }
+  }
+  private void runTasks() {
+    Runnable task;
+    while((task = tasks.poll()) != null)
+      task.run();
+  }
+  // Interrupt the loop thread to stop it; every channel
+  // still registered then ends with ClosedByInterruptException:
+  public void run() {
+    long nextSweep = System.nanoTime();
+    try {
+      while(!Thread.interrupted()) {
+        selector.select(SWEEP_MILLIS);
+        runTasks();
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while(it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          if(key.isValid() && key.isReadable())
+            read((Registration)key.attachment());
+        }
+        if(System.nanoTime() - nextSweep >= 0) {
+          sweep();
+          nextSweep = System.nanoTime() +
+            TimeUnit.MILLISECONDS.toNanos(SWEEP_MILLIS);
+        }
+      }
+    } catch(IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      // Tasks that slip in now are run by execute() instead:
+      synchronized(tasks) {
+        stopped = true;
+        runTasks();
+        for(Registration r : new ArrayList<Registration>(registrations))
+          finish(r, new ClosedByInterruptException());
+      }
+      try {
+        selector.close();
+      } catch(IOException ignore) {}
+    }
+  }
+  private void read(Registration r) {
+    buffer.clear();
+    try {
+      if(r.sc.read(buffer) < 0) {
+        finish(r, null);
+        return;
+      }
+      buffer.flip();
+      r.handler.read(r.sc, buffer);
+    } catch(RuntimeException e) { // Only this channel fails
+      finish(r, new IOException("ReadHandler failed", e));
+    } catch(ClosedByInterruptException e) {
+      finish(r, e);
+    } catch(IOException e) {
+      finish(r, r.sc.isOpen() ? e : new AsynchronousCloseException());
+    }
+  }
+  private void sweep() {
+    List<Registration> closed = new ArrayList<Registration>();
+    for(Registration r : registrations)
+      if(!r.sc.isOpen())
+        closed.add(r);
+    for(Registration r : closed)
+      finish(r, new AsynchronousCloseException());
+  }
+  private void finish(Registration r, IOException cause) {
+    if(r.done) return;
+    r.done = true;
+    registrations.remove(r);
+    if(r.key != null)
+      r.key.cancel();
+    try {
+      r.sc.close();
+    } catch(IOException ignore) {}
+    try {
+      r.handler.closed(r.sc, cause);
+    } catch(RuntimeException e) {
+      e.printStackTrace(); // Nothing left to close
+    }
+  }
+  // A few loop threads sharing the channels round-robin:
+  public static class Group {
+    private final NIOEventLoop[] loops;
+    private final Thread[] threads;
+    private final AtomicInteger next = new AtomicInteger(0);
+    public Group(int nThreads) throws IOException {
+      loops = new NIOEventLoop[nThreads];
+      threads = new Thread[nThreads];
+      for(int i = 0; i < nThreads; i++) {
+        loops[i] = new NIOEventLoop();
+        threads[i] = new Thread(loops[i], "NIOEventLoop-" + i);
+        threads[i].setDaemon(true);
+        threads[i].start();
+      }
+    }
+    public Registration register(SocketChannel sc,
+      ReadHandler handler) throws IOException {
+      int i =
+        (next.getAndIncrement() & Integer.MAX_VALUE) % loops.length;
+      return loops[i].register(sc, handler);
+    }
+    public void shutdownNow() throws InterruptedException {
+      for(Thread t : threads)
+        t.interrupt();
+      for(Thread t : threads)
+        t.join();
+    }
+  }
+} ///:~
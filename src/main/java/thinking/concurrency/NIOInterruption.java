@@ -3,19 +3,26 @@ package thinking.concurrency;
 //: concurrency/NIOInterruption.java
 // Interrupting a blocked NIO channel.
 import java.net.*;
-import java.nio.*;
 import java.nio.channels.*;
 import java.util.concurrent.*;
 import java.io.*;
 import static net.mindview.util.Print.*;
 
 class NIOBlocked implements Runnable {
+  // Shared by all readers; once warm, a read allocates nothing:
+  static final PooledBufferAllocator buffers =
+    new PooledBufferAllocator();
   private final SocketChannel sc;
   public NIOBlocked(SocketChannel sc) { this.sc = sc; }
   public void run() {
     try {
       print("Waiting for read() in " + this);
-      sc.read(ByteBuffer.allocate(1));
+      PooledBufferAllocator.Lease lease = buffers.allocate(1);
+      try {
+        sc.read(lease.buffer());
+      } finally {
+        lease.release();
+      }
     } catch(ClosedByInterruptException e) {
       print("ClosedByInterruptException");
     } catch(AsynchronousCloseException e) {
@@ -29,7 +36,7 @@ class NIOBlocked implements Runnable {
 
 public class NIOInterruption {
   public static void main(String[] args) throws Exception {
-    ExecutorService exec = Executors.newCachedThreadPool();
+    ExecutorService exec = ExecutorProvider.newExecutor();
     ServerSocket server = new ServerSocket(8080);
     InetSocketAddress isa =
       new InetSocketAddress("localhost", 8080);
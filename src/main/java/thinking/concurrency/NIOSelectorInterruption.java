@@ -0,0 +1,133 @@
+package thinking.concurrency;
+
+//: concurrency/NIOSelectorInterruption.java
+// NIOInterruption on an NIOEventLoop.Group: no thread waits in
+// read(), yet cancelling and closing end the reads the same
+// way. With "load" it connects n loopback channels (each
+// end needs a file descriptor, so n = 10000 needs
+// ulimit -n above 20000), sends a byte on each a number
+// of times, then cancels half and closes the other half.
+// {Args: load 5000 2}
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import static net.mindview.util.Print.*;
+
+class PrintingReader implements NIOEventLoop.ReadHandler {
+  public void read(SocketChannel sc, ByteBuffer data) {
+    print("Read " + data.remaining() + " bytes in " + this);
+  }
+  public void closed(SocketChannel sc, IOException cause) {
+    print(cause == null ? "End of stream" :
+      cause.getClass().getSimpleName());
+    print("Exiting read in " + this);
+  }
+}
+
+class CountingReader implements NIOEventLoop.ReadHandler {
+  static final AtomicLong bytes = new AtomicLong(0);
+  static final ConcurrentHashMap<String, AtomicInteger> outcomes =
+    new ConcurrentHashMap<String, AtomicInteger>();
+  static final AtomicLong closed = new AtomicLong(0);
+  public void read(SocketChannel sc, ByteBuffer data) {
+    bytes.addAndGet(data.remaining());
+  }
+  public void closed(SocketChannel sc, IOException cause) {
+    String name = cause == null ? "EndOfStream" :
+      cause.getClass().getSimpleName();
+    AtomicInteger n = outcomes.get(name);
+    if(n == null) {
+      AtomicInteger fresh = new AtomicInteger(0);
+      n = outcomes.putIfAbsent(name, fresh);
+      if(n == null) n = fresh;
+    }
+    n.incrementAndGet();
+    closed.incrementAndGet();
+  }
+}
+
+public class NIOSelectorInterruption {
+  static void awaitCount(AtomicLong count, long target)
+  throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while(count.get() < target && System.nanoTime() < deadline)
+      TimeUnit.MILLISECONDS.sleep(10);
+  }
+  static void demo() throws Exception {
+    NIOEventLoop.Group loops = new NIOEventLoop.Group(1);
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress("localhost", 0));
+    SocketAddress isa = server.getLocalAddress();
+    SocketChannel sc1 = SocketChannel.open(isa);
+    SocketChannel sc2 = SocketChannel.open(isa);
+    NIOEventLoop.Registration r1 =
+      loops.register(sc1, new PrintingReader());
+    loops.register(sc2, new PrintingReader());
+    print("Reading " + Thread.activeCount() + " threads in use");
+    TimeUnit.SECONDS.sleep(1);
+    // Produce the effect of an interrupt via cancel:
+    r1.cancel();
+    TimeUnit.SECONDS.sleep(1);
+    // Release the read by closing the channel:
+    sc2.close();
+    TimeUnit.SECONDS.sleep(1);
+    loops.shutdownNow();
+    server.close();
+  }
+  static void load(int n, int nLoops, int rounds) throws Exception {
+    NIOEventLoop.Group loops = new NIOEventLoop.Group(nLoops);
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress("localhost", 0), n);
+    SocketAddress isa = server.getLocalAddress();
+    List<SocketChannel> clients = new ArrayList<SocketChannel>(n);
+    List<NIOEventLoop.Registration> registrations =
+      new ArrayList<NIOEventLoop.Registration>(n);
+    long t0 = System.nanoTime();
+    for(int i = 0; i < n; i++) {
+      clients.add(SocketChannel.open(isa));
+      registrations.add(
+        loops.register(server.accept(), new CountingReader()));
+    }
+    printf("%d connections in %d ms, %d threads%n", n,
+      (System.nanoTime() - t0) / 1000000, Thread.activeCount());
+    ByteBuffer one = ByteBuffer.allocate(1);
+    t0 = System.nanoTime();
+    for(int round = 0; round < rounds; round++)
+      for(SocketChannel sc : clients) {
+        one.clear();
+        sc.write(one);
+      }
+    awaitCount(CountingReader.bytes, (long)n * rounds);
+    printf("%d bytes read in %d ms%n", CountingReader.bytes.get(),
+      (System.nanoTime() - t0) / 1000000);
+    for(int i = 0; i < n; i++)
+      if(i % 2 == 0)
+        registrations.get(i).cancel();
+      else
+        registrations.get(i).channel().close();
+    awaitCount(CountingReader.closed, n);
+    print("Outcomes: " + new TreeMap<String, AtomicInteger>(
+      CountingReader.outcomes));
+    loops.shutdownNow();
+    for(SocketChannel sc : clients)
+      sc.close();
+    server.close();
+  }
+  public static void main(String[] args) throws Exception {
+    if(args.length > 0 && args[0].equals("load"))
+      load(args.length > 1 ? Integer.parseInt(args[1]) : 10000,
+        args.length > 2 ? Integer.parseInt(args[2]) : 2, 10);
+    else
+      demo();
+  }
+} /* Output: (Sample)
+Reading 2 threads in use
+ClosedByInterruptException
+Exiting read in thinking.concurrency.PrintingReader@3119e1d6
+AsynchronousCloseException
+Exiting read in thinking.concurrency.PrintingReader@2f5227b0
+*///:~
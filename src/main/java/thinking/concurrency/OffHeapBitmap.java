@@ -0,0 +1,70 @@
+package thinking.concurrency;
+
+//: concurrency/OffHeapBitmap.java
+// One bit per possible value in [0, nbits), kept in direct
+// ByteBuffers outside the Java heap, so even 2^32 bits
+// (512 MB, every int) costs the collector nothing. Exact:
+// set() reports a value seen before, however long ago.
+// Java 8 has no atomic operations on direct memory without
+// sun.misc.Unsafe, so each 64-bit word is updated under one
+// of a fixed set of striped locks; reads take no lock.
+import java.nio.*;
+
+public class OffHeapBitmap {
+  private static final int SEGMENT_SHIFT = 30; // 1 GB segments
+  private static final int STRIPES = 4096;
+  private final ByteBuffer[] segments;
+  private final Object[] locks = new Object[STRIPES];
+  private final long nbits;
+  public OffHeapBitmap(long nbits) {
+    if(nbits < 1)
+      throw new IllegalArgumentException("nbits: " + nbits);
+    this.nbits = nbits;
+    long bytes = ((nbits + 63) >>> 6) << 3;
+    int n = (int)((bytes + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT);
+    segments = new ByteBuffer[n];
+    for(int i = 0; i < n; i++) {
+      long size = Math.min(bytes - ((long)i << SEGMENT_SHIFT),
+        1L << SEGMENT_SHIFT);
+      // allocateDirect() memory starts zeroed:
+      segments[i] = ByteBuffer.allocateDirect((int)size)
+        .order(ByteOrder.nativeOrder());
+    }
+    for(int i = 0; i < STRIPES; i++)
+      locks[i] = new Object();
+  }
+  private ByteBuffer segment(long byteOffset) {
+    return segments[(int)(byteOffset >>> SEGMENT_SHIFT)];
+  }
+  private static int offset(long byteOffset) {
+    return (int)(byteOffset & ((1L << SEGMENT_SHIFT) - 1));
+  }
+  private void check(long i) {
+    if(i < 0 || i >= nbits)
+      throw new IndexOutOfBoundsException(i + " not in [0, " + nbits + ")");
+  }
+  // False if bit i was already set:
+  public boolean set(long i) {
+    check(i);
+    long byteOffset = (i >>> 6) << 3;
+    long bit = 1L << (i & 63);
+    ByteBuffer seg = segment(byteOffset);
+    int off = offset(byteOffset);
+    // Consecutive words use consecutive stripes, so threads
+    // working on different words rarely share a lock:
+    synchronized(locks[(int)((i >>> 6) & (STRIPES - 1))]) {
+      long word = seg.getLong(off);
+      if((word & bit) != 0) return false;
+      seg.putLong(off, word | bit);
+      return true;
+    }
+  }
+  public boolean get(long i) {
+    check(i);
+    long byteOffset = (i >>> 6) << 3;
+    return (segment(byteOffset).getLong(offset(byteOffset)) &
+      (1L << (i & 63))) != 0;
+  }
+  public long capacity() { return nbits; }
+  public long sizeInBytes() { return ((nbits + 63) >>> 6) << 3; }
+} ///:~
@@ -0,0 +1,184 @@
+package thinking.concurrency;
+
+//: concurrency/OffHeapPairStore.java
+// PairManager storage that keeps x and y as int columns
+// rather than as Pair objects. Pairs are appended to a direct
+// ByteBuffer segment (x column, then y column); a full
+// segment is copied into a memory-mapped file and the buffer
+// reused, so the heap holds a few fixed-size objects however
+// many pairs are stored. scan() reads the columns back.
+// close() writes the last, partial segment short (its x
+// column, then its y column) and truncates the file to 8
+// bytes a pair, so the file's length gives size().
+// {Args: 50000000}
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+public class OffHeapPairStore implements PairStorage, Closeable {
+  public interface Visitor { void visit(int x, int y); }
+  private static final long WINDOW = 64L << 20; // Mapped at a time
+  private final File file;
+  private final FileChannel channel;
+  private final int segmentPairs, segmentBytes;
+  private final ByteBuffer segment;
+  private int filled = 0;       // Pairs in segment
+  private long spilled = 0;     // Segments in the file
+  private MappedByteBuffer window;
+  private long windowStart = 0; // File offset of window
+  public OffHeapPairStore(File file, int segmentPairs)
+  throws IOException {
+    if(segmentPairs <= 0)
+      throw new IllegalArgumentException(
+        "segmentPairs must be positive: " + segmentPairs);
+    this.file = file;
+    this.segmentPairs = segmentPairs;
+    segmentBytes = 8 * segmentPairs;
+    if(WINDOW % segmentBytes != 0)
+      throw new IllegalArgumentException(
+        "segmentPairs must divide " + WINDOW / 8 + ": " + segmentPairs);
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(0);
+    channel = raf.getChannel();
+    segment = ByteBuffer.allocateDirect(segmentBytes)
+      .order(ByteOrder.nativeOrder());
+  }
+  public OffHeapPairStore(File file) throws IOException {
+    this(file, 1 << 16);
+  }
+  public synchronized void append(int x, int y) {
+    if(filled == segmentPairs)
+      spill();
+    segment.putInt(4 * filled, x);
+    segment.putInt(4 * (segmentPairs + filled), y);
+    filled++;
+  }
+  public synchronized void addAll(List<Pair> batch) {
+    for(Pair p : batch)
+      append(p.getX(), p.getY());
+  }
+  // Copy the full segment to the file; dropping an old
+  // window leaves its unmapping to the garbage collector:
+  private void spill() {
+    try {
+      long offset = spilled * segmentBytes;
+      if(window == null || offset >= windowStart + WINDOW) {
+        if(window != null) window.force();
+        windowStart = offset;
+        window = channel.map(FileChannel.MapMode.READ_WRITE,
+          windowStart, WINDOW);
+      }
+      ByteBuffer src = segment.duplicate();
+      src.clear();
+      ByteBuffer dst = window.duplicate();
+      dst.position((int)(offset - windowStart));
+      dst.put(src);
+      spilled++;
+      filled = 0;
+    } catch(IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+  public synchronized long size() {
+    return spilled * segmentPairs + filled;
+  }
+  // Every pair in the order stored. Spilled segments never
+  // change, so only the unspilled tail is read under the
+  // lock; appends carry on during the rest of the scan:
+  public void scan(Visitor v) throws IOException {
+    long segments;
+    synchronized(this) { segments = spilled; }
+    long bytes = segments * segmentBytes;
+    for(long start = 0; start < bytes; start += WINDOW) {
+      MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+        start, Math.min(WINDOW, bytes - start));
+      map.order(ByteOrder.nativeOrder());
+      for(int base = 0; base < map.limit(); base += segmentBytes)
+        visit(map, base, segmentPairs, v);
+    }
+    synchronized(this) {
+      // Segments spilled since we started are read here too:
+      long more = spilled - segments;
+      if(more > 0) {
+        ByteBuffer rest = channel.map(FileChannel.MapMode.READ_ONLY,
+          bytes, more * segmentBytes).order(ByteOrder.nativeOrder());
+        for(int base = 0; base < rest.limit(); base += segmentBytes)
+          visit(rest, base, segmentPairs, v);
+      }
+      visit(segment, 0, filled, v);
+    }
+  }
+  private void visit(ByteBuffer buf, int base, int n, Visitor v) {
+    int ys = base + 4 * segmentPairs;
+    for(int i = 0; i < n; i++)
+      v.visit(buf.getInt(base + 4 * i), buf.getInt(ys + 4 * i));
+  }
+  public long fileBytes() throws IOException { return channel.size(); }
+  public synchronized void close() throws IOException {
+    if(!channel.isOpen()) return;
+    try {
+      if(window != null) window.force();
+      window = null;
+      long offset = spilled * segmentBytes;
+      ByteBuffer xs = segment.duplicate();
+      xs.limit(4 * filled);
+      xs.position(0);
+      ByteBuffer ys = segment.duplicate();
+      ys.limit(4 * (segmentPairs + filled));
+      ys.position(4 * segmentPairs);
+      while(xs.hasRemaining())
+        offset += channel.write(xs, offset);
+      while(ys.hasRemaining())
+        offset += channel.write(ys, offset);
+      channel.truncate(offset); // Drop the rest of the window
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+  static long heapUsed() {
+    Runtime rt = Runtime.getRuntime();
+    System.gc();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+  public static void main(String[] args) throws Exception {
+    long count = args.length > 0 ? Long.parseLong(args[0]) : 50000000;
+    File file = File.createTempFile("pairs", ".dat");
+    file.deleteOnExit();
+    final OffHeapPairStore store = new OffHeapPairStore(file);
+    // As a PairManager's storage:
+    PairManager pm = new PairManager2();
+    pm.setStorage(store);
+    for(int i = 0; i < 5; i++)
+      pm.increment();
+    long base = heapUsed();
+    for(long i = 5; i < count; i++) {
+      store.append((int)i + 1, (int)i + 1);
+      if((i + 1) % (count / 5) == 0)
+        System.out.printf("%,d pairs: heap %+,d bytes, file %,d MB%n",
+          store.size(), heapUsed() - base, store.fileBytes() >> 20);
+    }
+    final long[] check = new long[2];
+    long t0 = System.nanoTime();
+    store.scan(new Visitor() {
+      public void visit(int x, int y) {
+        if(x != y) check[1]++;
+        check[0]++;
+      }
+    });
+    System.out.printf("Scanned %,d pairs in %d ms, %d with x != y%n",
+      check[0], (System.nanoTime() - t0) / 1000000, check[1]);
+    store.close();
+    System.out.printf("Closed: file %,d bytes for %,d pairs%n",
+      file.length(), store.size());
+  }
+} /* Output: (Sample)
+10,000,000 pairs: heap +11,216 bytes, file 128 MB
+20,000,000 pairs: heap +43,784 bytes, file 192 MB
+30,000,000 pairs: heap +40,816 bytes, file 256 MB
+40,000,000 pairs: heap +41,064 bytes, file 320 MB
+50,000,000 pairs: heap +41,312 bytes, file 384 MB
+Scanned 50,000,000 pairs in 149 ms, 0 with x != y
+Closed: file 400,000,000 bytes for 50,000,000 pairs
+*///:~
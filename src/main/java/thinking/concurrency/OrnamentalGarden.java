@@ -1,72 +1,27 @@
 package thinking.concurrency;
 
 //: concurrency/OrnamentalGarden.java
+// {Args: striped 200} counts with StripedCount
+// {Args: sequenced 200 async} also prints through AsyncPrint
+// Entrance and its Counts are in their own files, shared
+// with GardenSimulation.
 import java.util.concurrent.*;
-import java.util.*;
+import net.mindview.util.*;
 import static net.mindview.util.Print.*;
 
-class Count {
-	private int count = 0;
-	private Random rand = new Random(47);
-	// Remove the synchronized keyword to see counting fail:
-	public synchronized int increment() {
-		int temp = count;
-		if(rand.nextBoolean()) // Yield half the time
-			Thread.yield();
-		return (count = ++temp);
-	}
-	public synchronized int value() { return count; }
-}
-
-class Entrance implements Runnable {
-	private static Count count = new Count();
-	private static List<Entrance> entrances =
-			new ArrayList<Entrance>();
-	private int number = 0;
-	// Doesn't need synchronization to read:
-	private final int id;
-	private static volatile boolean canceled = false;
-	// Atomic operation on a volatile field:
-	public static void cancel() { canceled = true; }
-	public Entrance(int id) {
-		this.id = id;
-		// Keep this task in a list. Also prevents
-		// garbage collection of dead tasks:
-		entrances.add(this);
-	}
-	public void run() {
-		while(!canceled) {
-			synchronized(this) {
-				++number;
-			}
-			print(this + " Total: " + count.increment());
-			try {
-				TimeUnit.MILLISECONDS.sleep(100);
-			} catch(InterruptedException e) {
-				print("sleep interrupted");
-			}
-		}
-		print("Stopping " + this);
-	}
-	public synchronized int getValue() { return number; }
-	public String toString() {
-		return "Entrance " + id + ": " + getValue();
-	}
-	public static int getTotalCount() {
-		return count.value();
-	}
-	public static int sumEntrances() {
-		int sum = 0;
-		for(Entrance entrance : entrances)
-			sum += entrance.getValue();
-		return sum;
-	}
-}
-
 public class OrnamentalGarden {
 	public static void main(String[] args) throws Exception {
-		ExecutorService exec = Executors.newCachedThreadPool();
-		for(int i = 0; i < 5; i++)
+		if(args.length > 0 && args[0].equals("striped"))
+			Entrance.setCount(new StripedCount(false));
+		else if(args.length > 0 && args[0].equals("sequenced"))
+			Entrance.setCount(new StripedCount(true));
+		int entrances = 5;
+		if(args.length > 1)
+			entrances = Integer.parseInt(args[1]);
+		if(args.length > 2 && args[2].equals("async"))
+			AsyncPrint.start();
+		ExecutorService exec = ExecutorProvider.newExecutor();
+		for(int i = 0; i < entrances; i++)
 			exec.execute(new Entrance(i));
 		// Run for a while, then stop and collect the data:
 		TimeUnit.SECONDS.sleep(3);
@@ -74,6 +29,7 @@ public class OrnamentalGarden {
 		exec.shutdown();
 		if(!exec.awaitTermination(250, TimeUnit.MILLISECONDS))
 			print("Some tasks were not terminated!");
+		AsyncPrint.stop(); // Flush, then print synchronously
 		print("Total: " + Entrance.getTotalCount());
 		print("Sum of Entrances: " + Entrance.sumEntrances());
 	}
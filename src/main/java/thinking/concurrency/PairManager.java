@@ -0,0 +1,50 @@
+package thinking.concurrency;
+
+//: concurrency/PairManager.java
+// Protect a Pair inside a thread-safe class. Subclasses
+// choose how increment() is made safe.
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+abstract class PairManager {
+  // The default storage:
+  private static class HeapPairStorage implements PairStorage {
+    private List<Pair> pairs =
+      Collections.synchronizedList(new ArrayList<Pair>());
+    public void addAll(List<Pair> batch) { pairs.addAll(batch); }
+  }
+  AtomicInteger checkCounter = new AtomicInteger(0);
+  protected Pair p = new Pair();
+  private volatile PairStorage storage = new HeapPairStorage();
+  private volatile long persistMillis = 50;
+  public void setStorage(PairStorage storage) {
+    this.storage = storage;
+  }
+  // How long persist() pretends to take (0 for no delay):
+  public void setPersistMillis(long persistMillis) {
+    this.persistMillis = persistMillis;
+  }
+  public synchronized Pair getPair() {
+    // Make a copy to keep the original safe:
+    return new Pair(p.getX(), p.getY());
+  }
+  protected void store(Pair p) {
+    persist(Collections.singletonList(p));
+  }
+  // Assume this is a time consuming operation, whose
+  // cost is paid once per call however many pairs:
+  protected void persist(List<Pair> batch) {
+    storage.addAll(batch);
+    if(persistMillis > 0) {
+      try {
+        TimeUnit.MILLISECONDS.sleep(persistMillis);
+      } catch(InterruptedException ignore) {}
+    }
+  }
+  public abstract void increment();
+  // Managers that can check without a copy override this:
+  public void checkState() { getPair().checkState(); }
+  // Stop anything the manager started (nothing by default):
+  public void close() throws InterruptedException {}
+} ///:~
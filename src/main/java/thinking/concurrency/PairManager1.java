@@ -0,0 +1,12 @@
+package thinking.concurrency;
+
+//: concurrency/PairManager1.java
+// Synchronize the entire method.
+
+class PairManager1 extends PairManager {
+  public synchronized void increment() {
+    p.incrementX();
+    p.incrementY();
+    store(getPair());
+  }
+} ///:~
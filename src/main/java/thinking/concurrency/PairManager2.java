@@ -0,0 +1,16 @@
+package thinking.concurrency;
+
+//: concurrency/PairManager2.java
+// Use a critical section.
+
+class PairManager2 extends PairManager {
+  public void increment() {
+    Pair temp;
+    synchronized(this) {
+      p.incrementX();
+      p.incrementY();
+      temp = getPair();
+    }
+    store(temp);
+  }
+} ///:~
@@ -0,0 +1,102 @@
+package thinking.concurrency;
+
+//: concurrency/PairManagerBenchmark.java
+// JMH benchmarks for the PairManager locking strategies,
+// replacing the single 500 ms sample in CriticalSection.
+// Run from main(), or with the usual JMH options, e.g.
+//   -p manager=PairManager2 -tg 1,7
+// to set the writer,reader thread ratio of the "rw" group.
+// persist() doesn't sleep here, so increment measures the
+// locking rather than the 50 ms store; -p persistMillis=50
+// puts the store back. The pairs stored are thrown away, so
+// the heap doesn't grow through a trial.
+// Throughput mode gives ops/time; SampleTime mode gives the
+// latency percentiles (p0.50 ... p0.9999).
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PairManagerBenchmark {
+  // By class name, since most managers live in the file of
+  // the CriticalSection variant that introduces them:
+  static PairManager manager(String name, long persistMillis) {
+    PairManager pm;
+    try {
+      pm = Class.forName("thinking.concurrency." + name)
+        .asSubclass(PairManager.class)
+        .getDeclaredConstructor().newInstance();
+    } catch(ReflectiveOperationException | ClassCastException e) {
+      throw new IllegalArgumentException("Unknown manager: " + name, e);
+    }
+    pm.setPersistMillis(persistMillis);
+    pm.setStorage(DISCARD);
+    return pm;
+  }
+  private static final PairStorage DISCARD = new PairStorage() {
+    public void addAll(List<Pair> batch) {}
+  };
+  // One manager shared by all threads in a group:
+  @State(Scope.Group)
+  public static class Shared {
+    @Param({"PairManager1", "PairManager2", "StampedPairManager",
+      "WriteBehindPairManager", "PackedPairManager"})
+    public String manager;
+    @Param({"0"})
+    public long persistMillis;
+    PairManager pm;
+    @Setup
+    public void setUp() { pm = manager(manager, persistMillis); }
+    @TearDown
+    public void tearDown() throws InterruptedException { pm.close(); }
+  }
+  // A manager private to each thread, for uncontended costs:
+  @State(Scope.Thread)
+  public static class Private {
+    @Param({"PairManager1", "PairManager2", "StampedPairManager",
+      "WriteBehindPairManager", "PackedPairManager"})
+    public String manager;
+    @Param({"0"})
+    public long persistMillis;
+    PairManager pm;
+    @Setup
+    public void setUp() { pm = manager(manager, persistMillis); }
+    @TearDown
+    public void tearDown() throws InterruptedException { pm.close(); }
+  }
+  // The PairManipulator loop body:
+  @Benchmark
+  @Group("rw")
+  @GroupThreads(1)
+  public void increment(Shared s) {
+    s.pm.increment();
+  }
+  // The PairChecker loop body:
+  @Benchmark
+  @Group("rw")
+  @GroupThreads(3)
+  public void check(Shared s) {
+    s.pm.checkCounter.incrementAndGet();
+    s.pm.checkState();
+  }
+  @Benchmark
+  public Object getPairUncontended(Private s) {
+    return s.pm.getPair();
+  }
+  @Benchmark
+  public void incrementUncontended(Private s) {
+    s.pm.increment();
+  }
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(PairManagerBenchmark.class.getSimpleName())
+      .build();
+    new Runner(opt).run();
+  }
+} ///:~
@@ -0,0 +1,9 @@
+package thinking.concurrency;
+
+//: concurrency/PairStorage.java
+// Where a PairManager keeps the pairs it stores.
+import java.util.*;
+
+interface PairStorage {
+  void addAll(List<Pair> batch);
+} ///:~
@@ -0,0 +1,190 @@
+package thinking.concurrency;
+
+//: concurrency/ParallelInterruptingIdiom.java
+// InterruptingIdiom with the time-consuming operation split
+// into fork-join chunks. Blocked3's loop is a recurrence
+// (each d depends on the last), which can't be split, so
+// the kernel sums independent terms of the same cost
+// instead. Every chunk checks for cancellation first, so an
+// interrupt is noticed within one chunk rather than after
+// the whole loop, and the NeedsCleanup try/finally blocks
+// still run exactly once. Blocked4 does as many terms as
+// Blocked3 does steps; the benchmark defaults to 100 times
+// more, so the serial loop runs long enough for the time to
+// cancel it to stand out from the fork-join version's.
+// {Args: 1100}
+// {Args: bench 250000000}
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import static net.mindview.util.Print.*;
+
+class CancellableSum extends RecursiveTask<Double> {
+  private static final long serialVersionUID = 1L;
+  static final int CHUNK = 1 << 16;
+  private final int lo, hi;
+  private final AtomicBoolean cancelled;
+  CancellableSum(int lo, int hi, AtomicBoolean cancelled) {
+    this.lo = lo;
+    this.hi = hi;
+    this.cancelled = cancelled;
+  }
+  static double term(int i) { return (Math.PI + Math.E) / i; }
+  protected Double compute() {
+    if(cancelled.get())
+      throw new CancellationException();
+    if(hi - lo <= CHUNK) {
+      double sum = 0;
+      for(int i = lo; i < hi; i++)
+        sum += term(i);
+      return sum;
+    }
+    int mid = (lo + hi) >>> 1;
+    CancellableSum left = new CancellableSum(lo, mid, cancelled);
+    left.fork();
+    double right = new CancellableSum(mid, hi, cancelled).compute();
+    return left.join() + right;
+  }
+  // Sum term(lo) ... term(hi - 1) on pool. Interrupting the
+  // calling thread stops the work within about one chunk
+  // and throws InterruptedException:
+  static double sum(ForkJoinPool pool, int lo, int hi)
+  throws InterruptedException {
+    AtomicBoolean cancelled = new AtomicBoolean(false);
+    ForkJoinTask<Double> task =
+      pool.submit(new CancellableSum(lo, hi, cancelled));
+    try {
+      return task.get();
+    } catch(InterruptedException e) {
+      cancelled.set(true);
+      task.quietlyJoin(); // Don't leave chunks running behind us
+      throw e;
+    } catch(ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+}
+
+class Blocked4 implements Runnable {
+  // As in InterruptingIdiom:
+  static class NeedsCleanup {
+    private final int id;
+    public NeedsCleanup(int ident) {
+      id = ident;
+      print("NeedsCleanup " + id);
+    }
+    public void cleanup() {
+      print("Cleaning up " + id);
+    }
+  }
+  static final ForkJoinPool pool = new ForkJoinPool();
+  private volatile double d = 0.0;
+  public void run() {
+    try {
+      while(!Thread.interrupted()) {
+        // point1
+        NeedsCleanup n1 = new NeedsCleanup(1);
+        try {
+          print("Sleeping");
+          TimeUnit.SECONDS.sleep(1);
+          // point2
+          NeedsCleanup n2 = new NeedsCleanup(2);
+          try {
+            print("Calculating");
+            // Now interruptible, in all cores:
+            d = CancellableSum.sum(pool, 1, 2500000);
+            print("Finished time-consuming operation");
+          } finally {
+            n2.cleanup();
+          }
+        } finally {
+          n1.cleanup();
+        }
+      }
+      print("Exiting via while() test");
+    } catch(InterruptedException e) {
+      print("Exiting via InterruptedException");
+    }
+  }
+}
+
+public class ParallelInterruptingIdiom {
+  static volatile double sink;
+  static double serialSum(int lo, int hi) {
+    double sum = 0;
+    for(int i = lo; i < hi; i++)
+      sum += CancellableSum.term(i);
+    return sum;
+  }
+  // Milliseconds from interrupt() until the task's thread ends:
+  static double timeToCancel(Runnable task, long afterMillis)
+  throws InterruptedException {
+    Thread t = new Thread(task);
+    t.start();
+    TimeUnit.MILLISECONDS.sleep(afterMillis);
+    long t0 = System.nanoTime();
+    t.interrupt();
+    t.join();
+    return (System.nanoTime() - t0) / 1e6;
+  }
+  static void bench(final int n) throws Exception {
+    for(int i = 0; i < 3; i++) { // Warm up
+      sink = serialSum(1, n / 10);
+      sink = CancellableSum.sum(Blocked4.pool, 1, n / 10);
+    }
+    long t0 = System.nanoTime();
+    sink = serialSum(1, n);
+    long serial = System.nanoTime() - t0;
+    t0 = System.nanoTime();
+    sink = CancellableSum.sum(Blocked4.pool, 1, n);
+    long parallel = System.nanoTime() - t0;
+    printf("%d terms, %d threads: serial %d ms, fork-join %d ms%n",
+      n, Blocked4.pool.getParallelism(),
+      serial / 1000000, parallel / 1000000);
+    // Like Blocked3, the serial loop only looks once it's done:
+    double serialCancel = timeToCancel(new Runnable() {
+      public void run() {
+        sink = serialSum(1, n);
+        Thread.interrupted();
+      }
+    }, 10);
+    double parallelCancel = timeToCancel(new Runnable() {
+      public void run() {
+        try {
+          sink = CancellableSum.sum(Blocked4.pool, 1, n);
+        } catch(InterruptedException e) {
+          // Expected
+        }
+      }
+    }, 10);
+    printf("Time to cancel: serial %.1f ms, fork-join %.1f ms%n",
+      serialCancel, parallelCancel);
+  }
+  public static void main(String[] args) throws Exception {
+    if(args.length > 0 && args[0].equals("bench")) {
+      bench(args.length > 1 ? Integer.parseInt(args[1]) : 250000000);
+      return;
+    }
+    if(args.length != 1) {
+      print("usage: java ParallelInterruptingIdiom delay-in-mS");
+      System.exit(1);
+    }
+    Thread t = new Thread(new Blocked4());
+    t.start();
+    TimeUnit.MILLISECONDS.sleep(Integer.parseInt(args[0]));
+    t.interrupt();
+    print("interrupted");
+  }
+} /* Output: (Sample)
+NeedsCleanup 1
+Sleeping
+NeedsCleanup 2
+Calculating
+Finished time-consuming operation
+Cleaning up 2
+Cleaning up 1
+NeedsCleanup 1
+Sleeping
+Cleaning up 1
+Exiting via InterruptedException
+interrupted
+*///:~
@@ -0,0 +1,207 @@
+package thinking.concurrency;
+
+//: concurrency/PooledBufferAllocator.java
+// Direct ByteBuffers in power-of-two size classes (64 bytes
+// to 1 MB), carved from 1 MB slabs and reused. allocate()
+// returns a Lease; lease.release() gives the buffer back.
+// Each thread keeps a small cache per size class and only
+// goes to the shared, locked free list in batches, so a
+// steady allocate/release cycle takes no lock and allocates
+// nothing. Leases themselves are reused with their buffer.
+// That is also why release() can only catch a double release
+// while the Lease is still back in the pool: a stale Lease
+// released again after allocate() has handed it out anew
+// looks just like the new owner's, and frees its buffer
+// under it. Drop a Lease once it's released.
+//
+// Leak detection: the pool holds each Lease only weakly while
+// it is out. A Lease dropped without release() is garbage
+// collected, which the pool notices on its ReferenceQueue; it
+// reports the leak (with where the buffer was allocated, for
+// one in leakSampling allocations). It doesn't reuse that
+// buffer: whoever dropped the Lease may still hold the buffer
+// itself, and would share it with the next owner. The buffer
+// must not outlive its Lease all the same, since the pool
+// can't tell one still in use from one forgotten.
+import java.lang.ref.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class PooledBufferAllocator {
+  private static final int MIN_SHIFT = 6, MAX_SHIFT = 20;
+  private static final int CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+  private static final int SLAB = 1 << 20;
+  private static final int CACHE = 16; // Per thread, per class
+  public final class Lease {
+    private final ByteBuffer buffer;
+    private final int sizeClass; // -1 if not pooled
+    private final Tracker tracker;
+    private boolean out = true; // Best effort, see above
+    private Lease(ByteBuffer buffer, int sizeClass) {
+      this.buffer = buffer;
+      this.sizeClass = sizeClass;
+      tracker = sizeClass < 0 ? null : new Tracker(this);
+    }
+    // Limit is the size asked for; capacity may be larger.
+    // Only valid until release(); don't keep it longer than
+    // the Lease:
+    public ByteBuffer buffer() { return buffer; }
+    public void release() {
+      if(!out)
+        throw new IllegalStateException("Released twice");
+      out = false;
+      if(sizeClass >= 0) {
+        tracker.lent = false;
+        tracker.allocatedAt = null;
+        free(this);
+      }
+    }
+  }
+  // Outlives its Lease, holding what's needed to recover
+  // the buffer once the Lease has been collected:
+  private final class Tracker extends WeakReference<Lease> {
+    final ByteBuffer buffer;
+    final int sizeClass;
+    volatile boolean lent = true;
+    volatile Throwable allocatedAt;
+    Tracker(Lease lease) {
+      super(lease, collected);
+      buffer = lease.buffer;
+      sizeClass = lease.sizeClass;
+      trackers.add(this);
+    }
+  }
+  private static final class Cache {
+    final Lease[][] leases = new Lease[CLASSES][CACHE];
+    final int[] count = new int[CLASSES];
+  }
+  private final ThreadLocal<Cache> caches = new ThreadLocal<Cache>() {
+    protected Cache initialValue() { return new Cache(); }
+  };
+  private final List<ArrayDeque<Lease>> shared =
+    new ArrayList<ArrayDeque<Lease>>(CLASSES);
+  private final ReferenceQueue<Lease> collected =
+    new ReferenceQueue<Lease>();
+  private final Set<Tracker> trackers =
+    Collections.newSetFromMap(new ConcurrentHashMap<Tracker,Boolean>());
+  private final AtomicLong slabBytes = new AtomicLong();
+  private final AtomicLong unpooled = new AtomicLong();
+  private final AtomicLong leaks = new AtomicLong();
+  private volatile int leakSampling;
+  public PooledBufferAllocator(int leakSampling) {
+    this.leakSampling = leakSampling;
+    for(int i = 0; i < CLASSES; i++)
+      shared.add(new ArrayDeque<Lease>());
+  }
+  public PooledBufferAllocator() { this(128); }
+  private static int sizeClass(int size) {
+    int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+    return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+  }
+  public Lease allocate(int size) {
+    if(size > 1 << MAX_SHIFT) { // Too big to pool
+      unpooled.incrementAndGet();
+      return new Lease(ByteBuffer.allocateDirect(size), -1);
+    }
+    int c = sizeClass(size);
+    Cache cache = caches.get();
+    if(cache.count[c] == 0)
+      refill(cache, c);
+    Lease lease = cache.leases[c][--cache.count[c]];
+    cache.leases[c][cache.count[c]] = null;
+    lease.out = true;
+    lease.tracker.lent = true;
+    int sampling = leakSampling;
+    if(sampling > 0 &&
+       ThreadLocalRandom.current().nextInt(sampling) == 0)
+      lease.tracker.allocatedAt =
+        new Throwable("Leaked buffer was allocated here");
+    lease.buffer.clear().limit(size);
+    return lease;
+  }
+  private void free(Lease lease) {
+    int c = lease.sizeClass;
+    Cache cache = caches.get();
+    if(cache.count[c] == CACHE) { // Hand half to other threads
+      ArrayDeque<Lease> q = shared.get(c);
+      synchronized(q) {
+        while(cache.count[c] > CACHE / 2) {
+          q.push(cache.leases[c][--cache.count[c]]);
+          cache.leases[c][cache.count[c]] = null;
+        }
+      }
+    }
+    cache.leases[c][cache.count[c]++] = lease;
+  }
+  // Take half a cache from the shared list, carving a new
+  // slab if that's empty:
+  private void refill(Cache cache, int c) {
+    checkLeaks();
+    ArrayDeque<Lease> q = shared.get(c);
+    synchronized(q) {
+      if(q.isEmpty())
+        carve(c, q);
+      while(cache.count[c] < CACHE / 2 && !q.isEmpty())
+        cache.leases[c][cache.count[c]++] = q.pop();
+    }
+  }
+  private void carve(int c, ArrayDeque<Lease> q) {
+    int size = 1 << (c + MIN_SHIFT);
+    ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(SLAB, size));
+    slabBytes.addAndGet(slab.capacity());
+    for(int pos = 0; pos + size <= slab.capacity(); pos += size) {
+      slab.limit(pos + size).position(pos);
+      q.push(new Lease(slab.slice(), c));
+    }
+  }
+  // Report leases collected while lent out, and put the
+  // buffers of the others back in the pool. Returns leaks
+  // found:
+  public int checkLeaks() {
+    int found = 0;
+    Reference<? extends Lease> ref;
+    while((ref = collected.poll()) != null) {
+      Tracker t = (Tracker)ref;
+      trackers.remove(t);
+      // Leases cached by a thread that has died are collected
+      // with its ThreadLocals; those weren't lent out:
+      if(t.lent) {
+        found++;
+        leaks.incrementAndGet();
+        System.err.println("LEAK: a " + t.buffer.capacity() +
+          "-byte buffer was not released" +
+          (t.allocatedAt == null ? " (allocation not sampled)" : ""));
+        if(t.allocatedAt != null)
+          t.allocatedAt.printStackTrace();
+        continue; // Its buffer may still be in use
+      }
+      Lease recovered = new Lease(t.buffer, t.sizeClass);
+      recovered.out = false;
+      recovered.tracker.lent = false;
+      ArrayDeque<Lease> q = shared.get(t.sizeClass);
+      synchronized(q) { q.push(recovered); }
+    }
+    return found;
+  }
+  public void setLeakSampling(int leakSampling) {
+    this.leakSampling = leakSampling;
+  }
+  public long slabBytes() { return slabBytes.get(); }
+  public long unpooledAllocations() { return unpooled.get(); }
+  public long leaks() { return leaks.get(); }
+  public static void main(String[] args) throws Exception {
+    PooledBufferAllocator pool = new PooledBufferAllocator(1);
+    for(int i = 0; i < 100000; i++)
+      pool.allocate(1 + i % 100000).release();
+    System.out.println("Slab memory: " + pool.slabBytes() / 1024 + " KB");
+    pool.allocate(4000); // Never released
+    for(int i = 0; i < 10 && pool.leaks() == 0; i++) {
+      System.gc();
+      TimeUnit.MILLISECONDS.sleep(100);
+      pool.checkLeaks();
+    }
+    System.out.println("Leaks: " + pool.leaks());
+  }
+} ///:~
@@ -0,0 +1,343 @@
+package thinking.concurrency;
+
+//: concurrency/ProfiledLock.java
+// A ReentrantLock that keeps contention statistics, usable
+// anywhere a Lock is. Every acquisition bumps a LongAdder and
+// tries the lock once without blocking (and, on a fair lock,
+// without barging past queued threads); only when that fails
+// is it counted as contended. One in sampleEvery acquisitions
+// is timed: a sampled contended wait also records the call
+// site it came from, and a sampled outermost acquisition
+// records how long the lock is held. Unsampled acquisitions
+// cost a tryLock() and two counter updates, so it can stay on.
+// Time spent in Condition.await() counts as holding the lock:
+// other threads take the lock meanwhile, so its Conditions
+// give the waiter back its own hold start when it wakes.
+// {Args: 4 500}
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import javax.management.*;
+
+public class ProfiledLock implements Lock, ProfiledLockMXBean {
+  private static final int MAX_SITES = 1024;
+  private final ReentrantLock lock;
+  private final LongAdder acquisitions = new LongAdder();
+  private final LongAdder contended = new LongAdder();
+  private volatile int sampleEvery = 16;
+  // Guarded by lock, written only by the owner:
+  private long holdStart = -1;
+  // Sampled data, guarded by stats:
+  private final Object stats = new Object();
+  private final LatencyHistogram waits = new LatencyHistogram();
+  private final LatencyHistogram holds = new LatencyHistogram();
+  private final Map<String,long[]> sites =
+    new HashMap<String,long[]>(); // {waits, total nanos}
+  private ObjectName objectName;
+  public ProfiledLock(boolean fair) { lock = new ReentrantLock(fair); }
+  public ProfiledLock() { this(false); }
+  private boolean sampled() {
+    int n = sampleEvery;
+    return n <= 1 || ThreadLocalRandom.current().nextInt(n) == 0;
+  }
+  // Frames: callSite(), the Lock method, then its caller:
+  private static String callSite() {
+    StackTraceElement[] stack = new Throwable().getStackTrace();
+    return stack.length > 2 ? stack[2].toString() : "unknown";
+  }
+  private void recordWait(String site, long nanos) {
+    synchronized(stats) {
+      waits.record(nanos);
+      long[] s = sites.get(site);
+      if(s == null && sites.size() < MAX_SITES)
+        sites.put(site, s = new long[2]);
+      if(s != null) {
+        s[0]++;
+        s[1] += nanos;
+      }
+    }
+  }
+  // Called with the lock just acquired:
+  private void acquired(boolean sample) {
+    acquisitions.increment();
+    if(lock.getHoldCount() == 1)
+      holdStart = sample ? System.nanoTime() : -1;
+  }
+  // lock.tryLock() would barge even on a fair lock:
+  private boolean tryFirst() {
+    if(lock.isFair() && lock.hasQueuedThreads() &&
+       !lock.isHeldByCurrentThread())
+      return false;
+    return lock.tryLock();
+  }
+  public void lock() {
+    boolean sample = sampled();
+    if(!tryFirst()) {
+      contended.increment();
+      if(sample) {
+        String site = callSite();
+        long t0 = System.nanoTime();
+        lock.lock();
+        recordWait(site, System.nanoTime() - t0);
+      } else
+        lock.lock();
+    }
+    acquired(sample);
+  }
+  public void lockInterruptibly() throws InterruptedException {
+    if(Thread.interrupted())
+      throw new InterruptedException();
+    boolean sample = sampled();
+    if(!lock.tryLock(0, TimeUnit.NANOSECONDS)) { // Fair if lock is
+      contended.increment();
+      String site = sample ? callSite() : null;
+      long t0 = System.nanoTime();
+      try {
+        lock.lockInterruptibly();
+      } finally {
+        // An interrupted wait still counts as a wait:
+        if(sample) recordWait(site, System.nanoTime() - t0);
+      }
+    }
+    acquired(sample);
+  }
+  public boolean tryLock() {
+    if(!lock.tryLock())
+      return false;
+    acquired(sampled());
+    return true;
+  }
+  public boolean tryLock(long time, TimeUnit unit)
+  throws InterruptedException {
+    boolean sample = sampled();
+    if(!lock.tryLock(0, TimeUnit.NANOSECONDS)) { // Fair if lock is
+      contended.increment();
+      String site = sample ? callSite() : null;
+      long t0 = System.nanoTime();
+      boolean got;
+      try {
+        got = lock.tryLock(time, unit);
+      } finally {
+        if(sample) recordWait(site, System.nanoTime() - t0);
+      }
+      if(!got) return false;
+    }
+    acquired(sample);
+    return true;
+  }
+  public void unlock() {
+    if(lock.getHoldCount() == 1 && holdStart >= 0) {
+      long held = System.nanoTime() - holdStart;
+      holdStart = -1;
+      synchronized(stats) { holds.record(held); }
+    }
+    lock.unlock();
+  }
+  public Condition newCondition() {
+    return new ProfiledCondition(lock.newCondition());
+  }
+  private class ProfiledCondition implements Condition {
+    private final Condition condition;
+    ProfiledCondition(Condition condition) {
+      this.condition = condition;
+    }
+    // Only the owner may await, and so read holdStart:
+    private long holdStart() {
+      if(!lock.isHeldByCurrentThread())
+        throw new IllegalMonitorStateException();
+      return holdStart;
+    }
+    // await() returns, or throws, with the lock held again:
+    public void await() throws InterruptedException {
+      long start = holdStart();
+      try {
+        condition.await();
+      } finally {
+        holdStart = start;
+      }
+    }
+    public void awaitUninterruptibly() {
+      long start = holdStart();
+      try {
+        condition.awaitUninterruptibly();
+      } finally {
+        holdStart = start;
+      }
+    }
+    public long awaitNanos(long nanosTimeout)
+    throws InterruptedException {
+      long start = holdStart();
+      try {
+        return condition.awaitNanos(nanosTimeout);
+      } finally {
+        holdStart = start;
+      }
+    }
+    public boolean await(long time, TimeUnit unit)
+    throws InterruptedException {
+      long start = holdStart();
+      try {
+        return condition.await(time, unit);
+      } finally {
+        holdStart = start;
+      }
+    }
+    public boolean awaitUntil(Date deadline)
+    throws InterruptedException {
+      long start = holdStart();
+      try {
+        return condition.awaitUntil(deadline);
+      } finally {
+        holdStart = start;
+      }
+    }
+    public void signal() { condition.signal(); }
+    public void signalAll() { condition.signalAll(); }
+  }
+  public ObjectName register(String name) throws JMException {
+    ObjectName on = new ObjectName(
+      "thinking.concurrency:type=ProfiledLock,name=" +
+      ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+    objectName = on;
+    return on;
+  }
+  public void unregister() throws JMException {
+    if(objectName != null)
+      ManagementFactory.getPlatformMBeanServer()
+        .unregisterMBean(objectName);
+    objectName = null;
+  }
+  public long getAcquisitionCount() { return acquisitions.sum(); }
+  public long getContendedCount() { return contended.sum(); }
+  public int getSampleEvery() { return sampleEvery; }
+  public void setSampleEvery(int sampleEvery) {
+    if(sampleEvery < 1)
+      throw new IllegalArgumentException("sampleEvery: " + sampleEvery);
+    this.sampleEvery = sampleEvery;
+  }
+  public long getWaitSampleCount() {
+    synchronized(stats) { return waits.count(); }
+  }
+  public long getWaitP50() {
+    synchronized(stats) { return waits.percentile(0.5); }
+  }
+  public long getWaitP99() {
+    synchronized(stats) { return waits.percentile(0.99); }
+  }
+  public long getWaitMax() {
+    synchronized(stats) { return waits.max(); }
+  }
+  public long getHoldSampleCount() {
+    synchronized(stats) { return holds.count(); }
+  }
+  public long getHoldP50() {
+    synchronized(stats) { return holds.percentile(0.5); }
+  }
+  public long getHoldP99() {
+    synchronized(stats) { return holds.percentile(0.99); }
+  }
+  public long getHoldMax() {
+    synchronized(stats) { return holds.max(); }
+  }
+  public String[] getTopWaitSites() { return topWaitSites(10); }
+  public String[] topWaitSites(int n) {
+    List<Map.Entry<String,long[]>> list;
+    synchronized(stats) {
+      list = new ArrayList<Map.Entry<String,long[]>>();
+      for(Map.Entry<String,long[]> e : sites.entrySet())
+        list.add(new AbstractMap.SimpleEntry<String,long[]>(
+          e.getKey(), e.getValue().clone()));
+    }
+    Collections.sort(list, new Comparator<Map.Entry<String,long[]>>() {
+      public int compare(Map.Entry<String,long[]> a,
+        Map.Entry<String,long[]> b) {
+        return Long.compare(b.getValue()[1], a.getValue()[1]);
+      }
+    });
+    String[] top = new String[Math.min(n, list.size())];
+    for(int i = 0; i < top.length; i++) {
+      long[] s = list.get(i).getValue();
+      top[i] = String.format("%s: %d waits, %.1f ms",
+        list.get(i).getKey(), s[0], s[1] / 1e6);
+    }
+    return top;
+  }
+  public void reset() {
+    acquisitions.reset();
+    contended.reset();
+    synchronized(stats) {
+      waits.reset();
+      holds.reset();
+      sites.clear();
+    }
+  }
+  public String toString() {
+    return String.format("%d acquired, %d contended; " +
+      "wait p50 %d us p99 %d us (%d sampled); " +
+      "hold p50 %d us p99 %d us (%d sampled)",
+      getAcquisitionCount(), getContendedCount(),
+      getWaitP50() / 1000, getWaitP99() / 1000, getWaitSampleCount(),
+      getHoldP50() / 1000, getHoldP99() / 1000, getHoldSampleCount());
+  }
+  // Two call sites with different hold times share one lock:
+  static long spin(int n) {
+    long x = 0;
+    for(int i = 0; i < n; i++) x += i;
+    return x;
+  }
+  static volatile long sink;
+  static void longHold(Lock lock) {
+    lock.lock();
+    try {
+      sink = spin(20000);
+    } finally {
+      lock.unlock();
+    }
+  }
+  static void shortHold(Lock lock) {
+    lock.lock();
+    try {
+      sink = spin(100);
+    } finally {
+      lock.unlock();
+    }
+  }
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int millis = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    final ProfiledLock lock = new ProfiledLock();
+    ObjectName name = lock.register("ProfiledLock demo");
+    System.out.println("Registered " + name);
+    ExecutorService exec = Executors.newFixedThreadPool(threads);
+    final AtomicBoolean done = new AtomicBoolean();
+    for(int i = 0; i < threads; i++) {
+      final boolean slow = i % 2 == 0;
+      exec.execute(new Runnable() {
+        public void run() {
+          while(!done.get()) {
+            if(slow)
+              longHold(lock);
+            else
+              shortHold(lock);
+          }
+        }
+      });
+    }
+    TimeUnit.MILLISECONDS.sleep(millis);
+    done.set(true);
+    exec.shutdown();
+    exec.awaitTermination(1, TimeUnit.SECONDS);
+    System.out.println(lock);
+    for(String site : lock.getTopWaitSites())
+      System.out.println(site);
+    lock.unregister();
+  }
+} /* Output: (Sample)
+Registered thinking.concurrency:type=ProfiledLock,name="ProfiledLock demo"
+1977296 acquired, 94 contended; wait p50 7995 us p99 20901 us (7 sampled); hold p50 0 us p99 8 us (124251 sampled)
+thinking.concurrency.ProfiledLock.longHold(ProfiledLock.java:223): 4 waits, 49.3 ms
+thinking.concurrency.ProfiledLock.shortHold(ProfiledLock.java:231): 3 waits, 20.7 ms
+*///:~
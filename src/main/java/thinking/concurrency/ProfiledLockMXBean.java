@@ -0,0 +1,24 @@
+package thinking.concurrency;
+
+//: concurrency/ProfiledLockMXBean.java
+// What a ProfiledLock shows through JMX. Times are in
+// nanoseconds and come from sampled acquisitions only.
+
+public interface ProfiledLockMXBean {
+  long getAcquisitionCount();
+  long getContendedCount();
+  // Record one in sampleEvery acquisitions (1 records all):
+  int getSampleEvery();
+  void setSampleEvery(int sampleEvery);
+  long getWaitSampleCount();
+  long getWaitP50();
+  long getWaitP99();
+  long getWaitMax();
+  long getHoldSampleCount();
+  long getHoldP50();
+  long getHoldP99();
+  long getHoldMax();
+  // "site: waits, total ms", most total wait first:
+  String[] getTopWaitSites();
+  void reset();
+} ///:~
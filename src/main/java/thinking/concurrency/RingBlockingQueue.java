@@ -0,0 +1,124 @@
+package thinking.concurrency;
+
+//: concurrency/RingBlockingQueue.java
+// A BlockingQueue over an MpmcRingBuffer, so the ring can go
+// wherever an ArrayBlockingQueue could: a WriteBehind hand-off
+// or a ThreadPoolExecutor work queue. Unlike the JDK queues it
+// takes no lock and, being pre-allocated, allocates nothing
+// per element. Waiting for space or for an item is up to the
+// two WaitStrategys. Elements can't be removed from the
+// middle, so remove(Object) always returns false and the
+// iterator doesn't support remove(); a ThreadPoolExecutor
+// then leaves a task it tried to withdraw during shutdown
+// in the queue, to be run as usual.
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+public class RingBlockingQueue<E> extends AbstractQueue<E>
+implements BlockingQueue<E> {
+  private final MpmcRingBuffer<E> ring;
+  private final MpmcRingBuffer.WaitStrategy notEmpty, notFull;
+  private final BooleanSupplier canTake = new BooleanSupplier() {
+    public boolean getAsBoolean() { return ring.canPoll(); }
+  };
+  private final BooleanSupplier canPut = new BooleanSupplier() {
+    public boolean getAsBoolean() { return ring.canOffer(); }
+  };
+  public RingBlockingQueue(int capacity,
+    MpmcRingBuffer.WaitStrategy notEmpty,
+    MpmcRingBuffer.WaitStrategy notFull) {
+    ring = new MpmcRingBuffer<E>(capacity);
+    this.notEmpty = notEmpty;
+    this.notFull = notFull;
+  }
+  public RingBlockingQueue(int capacity, MpmcRingBuffer.Wait wait) {
+    this(capacity, wait.create(), wait.create());
+  }
+  public RingBlockingQueue(int capacity) {
+    this(capacity, MpmcRingBuffer.Wait.BLOCKING);
+  }
+  public boolean offer(E e) {
+    if(!ring.offer(e)) return false;
+    notEmpty.signalAll();
+    return true;
+  }
+  public E poll() {
+    E e = ring.poll();
+    if(e != null) notFull.signalAll();
+    return e;
+  }
+  public E peek() { return ring.peek(); }
+  public void put(E e) throws InterruptedException {
+    for(int attempt = 1; !offer(e); attempt++)
+      notFull.idle(attempt, Long.MAX_VALUE, canPut);
+  }
+  public boolean offer(E e, long timeout, TimeUnit unit)
+  throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for(int attempt = 1; !offer(e); attempt++) {
+      long left = deadline - System.nanoTime();
+      if(left <= 0) return false;
+      notFull.idle(attempt, left, canPut);
+    }
+    return true;
+  }
+  public E take() throws InterruptedException {
+    E e;
+    for(int attempt = 1; (e = poll()) == null; attempt++)
+      notEmpty.idle(attempt, Long.MAX_VALUE, canTake);
+    return e;
+  }
+  public E poll(long timeout, TimeUnit unit)
+  throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    E e;
+    for(int attempt = 1; (e = poll()) == null; attempt++) {
+      long left = deadline - System.nanoTime();
+      if(left <= 0) return null;
+      notEmpty.idle(attempt, left, canTake);
+    }
+    return e;
+  }
+  public int remainingCapacity() {
+    return ring.capacity() - ring.size();
+  }
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    if(c == this) throw new IllegalArgumentException();
+    int total = 0, n;
+    while(total < maxElements &&
+          (n = ring.drain(c, maxElements - total)) > 0)
+      total += n;
+    if(total > 0) notFull.signalAll();
+    return total;
+  }
+  public boolean remove(Object o) { return false; }
+  public int size() { return ring.size(); }
+  // Weakly consistent: visits items present from the head
+  // as it was when the iterator was created, skipping any
+  // taken since, and may miss items added later:
+  public Iterator<E> iterator() {
+    return new Iterator<E>() {
+      private long pos = ring.headPosition();
+      private final long end = ring.tailPosition();
+      private E next = advance();
+      private E advance() {
+        while(pos < end) {
+          E e = ring.at(pos++);
+          if(e != null) return e;
+        }
+        return null;
+      }
+      public boolean hasNext() { return next != null; }
+      public E next() {
+        if(next == null) throw new NoSuchElementException();
+        E e = next;
+        next = advance();
+        return e;
+      }
+    };
+  }
+} ///:~
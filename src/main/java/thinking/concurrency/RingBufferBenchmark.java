@@ -0,0 +1,147 @@
+package thinking.concurrency;
+
+//: concurrency/RingBufferBenchmark.java
+// RingBlockingQueue against ArrayBlockingQueue and
+// LinkedBlockingQueue, all bounded at 1024: producers put()
+// one shared object, consumers take(), and each thread
+// reports how many bytes it allocated (HotSpot's
+// com.sun.management.ThreadMXBean). Then the same queues as
+// the work queue of a ThreadPoolExecutor.
+// {Args: 2 2 2000000}
+import java.lang.management.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class RingBufferBenchmark {
+  static final int CAPACITY = 1024;
+  static final com.sun.management.ThreadMXBean threads =
+    (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+  static long allocated() {
+    return threads.getThreadAllocatedBytes(
+      Thread.currentThread().getId());
+  }
+  static <T> BlockingQueue<T> queue(String name) {
+    if(name.equals("ArrayBlockingQueue"))
+      return new ArrayBlockingQueue<T>(CAPACITY);
+    if(name.equals("LinkedBlockingQueue"))
+      return new LinkedBlockingQueue<T>(CAPACITY);
+    // "Ring/<Wait>":
+    return new RingBlockingQueue<T>(CAPACITY,
+      MpmcRingBuffer.Wait.valueOf(name.substring(5)));
+  }
+  static final String[] QUEUES = { "ArrayBlockingQueue",
+    "LinkedBlockingQueue", "Ring/BLOCKING", "Ring/SLEEPING",
+    "Ring/YIELDING" };
+  // Returns a line of results:
+  static String handOff(String name, int producers, int consumers,
+    final long items) throws Exception {
+    final BlockingQueue<Object> q = queue(name);
+    final Object item = new Object();
+    final AtomicLong bytes = new AtomicLong();
+    ExecutorService exec = Executors.newCachedThreadPool();
+    final CountDownLatch start = new CountDownLatch(1);
+    final long perProducer = items / producers;
+    final long total = perProducer * producers;
+    final long perConsumer = total / consumers;
+    Future<?>[] f = new Future<?>[producers + consumers];
+    for(int i = 0; i < producers; i++)
+      f[i] = exec.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          start.await();
+          long before = allocated();
+          for(long n = 0; n < perProducer; n++)
+            q.put(item);
+          bytes.addAndGet(allocated() - before);
+          return null;
+        }
+      });
+    for(int i = 0; i < consumers; i++) {
+      // The last consumer takes the remainder:
+      final long mine = i < consumers - 1 ? perConsumer :
+        total - perConsumer * (consumers - 1);
+      f[producers + i] = exec.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          start.await();
+          long before = allocated();
+          for(long n = 0; n < mine; n++)
+            q.take();
+          bytes.addAndGet(allocated() - before);
+          return null;
+        }
+      });
+    }
+    long t0 = System.nanoTime();
+    start.countDown();
+    for(Future<?> fut : f) fut.get();
+    long nanos = System.nanoTime() - t0;
+    exec.shutdown();
+    return String.format("%-20s %8.2f Mops/s %8.2f bytes/op", name,
+      total * 1e3 / nanos, (double)bytes.get() / total);
+  }
+  // When the queue is full, wait for room rather than run
+  // the task in the submitting thread:
+  static final RejectedExecutionHandler BLOCK =
+    new RejectedExecutionHandler() {
+      public void rejectedExecution(Runnable r,
+        ThreadPoolExecutor pool) {
+        try {
+          pool.getQueue().put(r);
+        } catch(InterruptedException e) {
+          throw new RejectedExecutionException(e);
+        }
+      }
+    };
+  static String executor(String name, int poolThreads,
+    final long tasks) throws Exception {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(
+      poolThreads, poolThreads, 0L, TimeUnit.MILLISECONDS,
+      RingBufferBenchmark.<Runnable>queue(name), BLOCK);
+    pool.prestartAllCoreThreads();
+    final LongAdder done = new LongAdder();
+    Runnable task = new Runnable() {
+      public void run() { done.increment(); }
+    };
+    long before = allocated();
+    long t0 = System.nanoTime();
+    for(long n = 0; n < tasks; n++)
+      pool.execute(task);
+    pool.shutdown();
+    pool.awaitTermination(1, TimeUnit.MINUTES);
+    long nanos = System.nanoTime() - t0;
+    // Submitter side only, where a linked queue allocates:
+    return String.format("%-20s %8.2f Mtasks/s %8.2f bytes/task",
+      name, done.sum() * 1e3 / nanos,
+      (double)(allocated() - before) / tasks);
+  }
+  public static void main(String[] args) throws Exception {
+    int producers = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+    int consumers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+    long items = args.length > 2 ? Long.parseLong(args[2]) : 2000000;
+    threads.setThreadAllocatedMemoryEnabled(true);
+    System.out.println(producers + " producers, " + consumers +
+      " consumers, " + items + " items:");
+    for(String name : QUEUES) // Warm up
+      handOff(name, producers, consumers, items / 10);
+    for(String name : QUEUES)
+      System.out.println(handOff(name, producers, consumers, items));
+    System.out.println("ThreadPoolExecutor, " + consumers +
+      " threads, " + items + " tasks:");
+    for(String name : QUEUES)
+      executor(name, consumers, items / 10);
+    for(String name : QUEUES)
+      System.out.println(executor(name, consumers, items));
+  }
+} /* Output: (Sample, one CPU)
+2 producers, 2 consumers, 2000000 items:
+ArrayBlockingQueue       6.68 Mops/s     0.10 bytes/op
+LinkedBlockingQueue      8.61 Mops/s    24.11 bytes/op
+Ring/BLOCKING            8.41 Mops/s     0.08 bytes/op
+Ring/SLEEPING           14.34 Mops/s     0.00 bytes/op
+Ring/YIELDING           21.50 Mops/s     0.00 bytes/op
+ThreadPoolExecutor, 2 threads, 2000000 tasks:
+ArrayBlockingQueue       6.57 Mtasks/s     0.07 bytes/task
+LinkedBlockingQueue      6.33 Mtasks/s    24.05 bytes/task
+Ring/BLOCKING            5.83 Mtasks/s     0.04 bytes/task
+Ring/SLEEPING           11.96 Mtasks/s     0.00 bytes/task
+Ring/YIELDING           11.72 Mtasks/s     0.00 bytes/task
+*///:~
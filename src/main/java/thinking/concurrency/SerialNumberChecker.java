@@ -5,53 +5,66 @@ package thinking.concurrency;
 // Operations that may seem safe are not,
 // when threads are present.
 // {Args: 4}
+// {Args: 4 leased} uses LeasingSerialNumberGenerator
+// {Args: 4 durable} uses DurableSerialNumberGenerator
+// -Dchecker=bitmap remembers every serial ever issued, in a
+// 512 MB OffHeapBitmap over all 2^32 ints, instead of only
+// the last ~2^20; it catches a repeat however far apart.
+import java.io.*;
 import java.util.concurrent.*;
 
-// Reuses storage so we don't run out of memory:
-class CircularSet {
-	private int[] array;
-	private int len;
-	private int index = 0;
-	public CircularSet(int size) {
-		array = new int[size];
-		len = size;
-		// Initialize to a value not produced
-		// by the SerialNumberGenerator:
-		for(int i = 0; i < size; i++)
-			array[i] = -1;
-	}
-	public synchronized void add(int i) {
-		array[index] = i;
-		// Wrap index and write over old elements:
-		index = ++index % len;
-	}
-	public synchronized boolean contains(int val) {
-		for(int i = 0; i < len; i++)
-			if(array[i] == val) return true;
-		return false;
-	}
-}
-
 public class SerialNumberChecker {
 	private static final int SIZE = 10;
-	private static CircularSet serials =
-			new CircularSet(1000);
+	// Remembers the last ~2^20 serials in O(1) per check:
+	private static StripedIntWindowSet serials =
+			new StripedIntWindowSet(1 << 20);
+	private static OffHeapBitmap everySerial =
+			System.getProperty("checker", "window").equals("bitmap") ?
+					new OffHeapBitmap(1L << 32) : null;
 	private static ExecutorService exec =
-			Executors.newCachedThreadPool();
+			ExecutorProvider.newExecutor();
+	private static volatile boolean leased = false;
+	private static volatile DurableSerialNumberGenerator durable;
+	static int nextSerialNumber() {
+		if(durable != null)
+			return (int)durable.nextSerialNumber();
+		return leased ?
+				LeasingSerialNumberGenerator.nextSerialNumber() :
+				SerialNumberGenerator.nextSerialNumber();
+	}
+	// False if serial was seen before:
+	static boolean firstSighting(int serial) {
+		if(everySerial != null)
+			return everySerial.set(serial & 0xFFFFFFFFL);
+		return serials.add(serial);
+	}
 	static class SerialChecker implements Runnable {
 		public void run() {
 			while(true) {
-				int serial =
-						SerialNumberGenerator.nextSerialNumber();
-				if(serials.contains(serial)) {
+				int serial = nextSerialNumber();
+				if(!firstSighting(serial)) {
 					System.out.println("Duplicate: " + serial);
-					System.exit(0);
+					exit();
 				}
-				serials.add(serial);
 			}
 		}
 	}
+	// Close the durable generator's file before exiting:
+	static void exit() {
+		if(durable != null) {
+			try {
+				durable.close();
+			} catch(IOException e) {
+				System.err.println(e);
+			}
+		}
+		System.exit(0);
+	}
 	public static void main(String[] args) throws Exception {
+		leased = args.length > 1 && args[1].equals("leased");
+		if(args.length > 1 && args[1].equals("durable"))
+			durable = new DurableSerialNumberGenerator(
+					new File("SerialNumberChecker.hwm"));
 		for(int i = 0; i < SIZE; i++)
 			exec.execute(new SerialChecker());
 		// Stop after n seconds if there's an argument:
@@ -61,7 +74,7 @@ public class SerialNumberChecker {
 		}		
 		TimeUnit.SECONDS.sleep(timeout);
 		System.out.println("No duplicates detected");
-		System.exit(0);
+		exit();
 
 	}
 } /* Output: (Sample)
@@ -0,0 +1,81 @@
+package thinking.concurrency;
+
+//: concurrency/SerialNumberScaling.java
+// Throughput of the synchronized SerialNumberGenerator
+// against LeasingSerialNumberGenerator from 1 to N threads.
+// {Args: 16 1000}
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class SerialNumberScaling {
+  interface Source { long next(); }
+  static final Source SYNCHRONIZED = new Source() {
+    public long next() {
+      return SerialNumberGenerator.nextSerialNumber();
+    }
+    public String toString() { return "synchronized"; }
+  };
+  static final Source LEASED = new Source() {
+    public long next() {
+      return LeasingSerialNumberGenerator.nextLongSerialNumber();
+    }
+    public String toString() { return "leased"; }
+  };
+  static volatile long sink; // Defeats dead-code elimination
+  // Serials per second with nThreads callers for millis:
+  static double run(final Source source, int nThreads,
+    long millis) throws InterruptedException {
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    final LongAdder total = new LongAdder();
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService exec = Executors.newFixedThreadPool(nThreads);
+    for(int i = 0; i < nThreads; i++)
+      exec.execute(new Runnable() {
+        public void run() {
+          long n = 0, sum = 0;
+          try {
+            start.await();
+          } catch(InterruptedException e) {
+            return;
+          }
+          while(!stop.get()) {
+            // Check the flag every 256 calls only:
+            for(int j = 0; j < 256; j++)
+              sum += source.next();
+            n += 256;
+          }
+          sink = sum;
+          total.add(n);
+        }
+      });
+    long t0 = System.nanoTime();
+    start.countDown();
+    TimeUnit.MILLISECONDS.sleep(millis);
+    stop.set(true);
+    exec.shutdown();
+    exec.awaitTermination(10, TimeUnit.SECONDS);
+    long elapsed = System.nanoTime() - t0;
+    return total.sum() * 1e9 / elapsed;
+  }
+  public static void main(String[] args) throws Exception {
+    int maxThreads = args.length > 0 ?
+      Integer.parseInt(args[0]) :
+      Runtime.getRuntime().availableProcessors();
+    long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+    // Warm up both paths before measuring:
+    run(SYNCHRONIZED, maxThreads, millis / 2);
+    run(LEASED, maxThreads, millis / 2);
+    System.out.printf("%-8s %16s %16s %8s%n",
+      "threads", "synchronized/s", "leased/s", "ratio");
+    for(int n : ThreadSweep.upTo(maxThreads)) {
+      double s = run(SYNCHRONIZED, n, millis);
+      double l = run(LEASED, n, millis);
+      System.out.printf("%-8d %16.0f %16.0f %8.1f%n", n, s, l, l / s);
+    }
+  }
+} /* Output: (Sample)
+threads    synchronized/s         leased/s    ratio
+1                68302931        390615392      5.7
+2                52967193        358751900      6.8
+4                38841350        268970353      6.9
+*///:~
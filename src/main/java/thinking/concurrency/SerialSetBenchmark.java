@@ -0,0 +1,91 @@
+package thinking.concurrency;
+
+//: concurrency/SerialSetBenchmark.java
+// Memory and checks/sec for tracking every serial issued, at
+// 10^8 and 10^9 serials: the exact OffHeapBitmap against a
+// ConcurrentBloomFilter sized for the same count. Threads
+// take serials in blocks from a shared counter, as the
+// SerialNumberChecker tasks do, then every serial is checked
+// again to be sure none is missed, and the filter's false
+// positive rate is measured on serials never issued.
+// Needs -Xmx2g for the 10^9 Bloom filter (1 GB of heap).
+// {Args: 100000000 1000000000}
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class SerialSetBenchmark {
+  static final int BLOCK = 4096;
+  interface SerialSet { boolean add(long serial); }
+  // Returns checks per second; all threads add [0, n), and
+  // any add() that says the serial was seen goes in repeats:
+  static double run(final SerialSet set, final long n, int threads,
+    final LongAdder repeats) throws Exception {
+    final AtomicLong next = new AtomicLong();
+    ExecutorService exec = Executors.newFixedThreadPool(threads);
+    long t0 = System.nanoTime();
+    for(int t = 0; t < threads; t++)
+      exec.execute(new Runnable() {
+        public void run() {
+          long start;
+          while((start = next.getAndAdd(BLOCK)) < n) {
+            long end = Math.min(start + BLOCK, n);
+            for(long s = start; s < end; s++)
+              if(!set.add(s)) repeats.increment();
+          }
+        }
+      });
+    exec.shutdown();
+    exec.awaitTermination(1, TimeUnit.HOURS);
+    return n * 1e9 / (System.nanoTime() - t0);
+  }
+  static void bitmap(long n, int threads) throws Exception {
+    final OffHeapBitmap bitmap = new OffHeapBitmap(n);
+    double rate = run(new SerialSet() {
+      public boolean add(long serial) { return bitmap.set(serial); }
+    }, n, threads, new LongAdder());
+    long missed = 0;
+    for(long s = 0; s < n; s++)
+      if(bitmap.set(s)) missed++;
+    System.out.printf("  OffHeapBitmap   %7.1f MB off-heap %6.1f M checks/s," +
+      " %d duplicates missed%n",
+      bitmap.sizeInBytes() / 1e6, rate / 1e6, missed);
+  }
+  static void bloom(long n, int threads) throws Exception {
+    final ConcurrentBloomFilter bloom = new ConcurrentBloomFilter(n);
+    LongAdder falseAlarms = new LongAdder();
+    double rate = run(new SerialSet() {
+      public boolean add(long serial) { return bloom.put(serial); }
+    }, n, threads, falseAlarms);
+    long missed = 0;
+    for(long s = 0; s < n; s++)
+      if(!bloom.mightContain(s)) missed++;
+    int probes = 1000000, falsePositives = 0;
+    for(long s = n; s < n + probes; s++)
+      if(bloom.mightContain(s)) falsePositives++;
+    System.out.printf("  Bloom filter    %7.1f MB heap     %6.1f M checks/s," +
+      " %d duplicates missed,%n    %d new serials taken for" +
+      " repeats, %.2f%% false positives when full%n",
+      bloom.sizeInBytes() / 1e6, rate / 1e6, missed,
+      falseAlarms.sum(), 100.0 * falsePositives / probes);
+  }
+  public static void main(String[] args) throws Exception {
+    int threads = Runtime.getRuntime().availableProcessors();
+    if(args.length == 0)
+      args = new String[]{ "100000000", "1000000000" };
+    for(String arg : args) {
+      long n = Long.parseLong(arg);
+      System.out.println(n + " serials, " + threads + " threads:");
+      bitmap(n, threads);
+      bloom(n, threads);
+    }
+  }
+} /* Output: (Sample, one CPU, -Xmx2g)
+100000000 serials, 1 threads:
+  OffHeapBitmap      12.5 MB off-heap   29.5 M checks/s, 0 duplicates missed
+  Bloom filter      100.0 MB heap        8.5 M checks/s, 0 duplicates missed,
+    923994 new serials taken for repeats, 3.35% false positives when full
+1000000000 serials, 1 threads:
+  OffHeapBitmap     125.0 MB off-heap   26.7 M checks/s, 0 duplicates missed
+  Bloom filter     1000.0 MB heap        6.7 M checks/s, 0 duplicates missed,
+    9237727 new serials taken for repeats, 3.36% false positives when full
+*///:~
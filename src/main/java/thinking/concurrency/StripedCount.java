@@ -0,0 +1,36 @@
+package thinking.concurrency;
+
+//: concurrency/StripedCount.java
+// A Count that spreads increments over LongAdder's
+// cache-line-padded cells, so entrances don't contend on
+// one monitor or one cache line. value() sums the cells:
+// cheap, but only a snapshot while increments are in
+// flight. increment() always hands out exact ticket
+// numbers from one AtomicInteger, which is lock-free but
+// shares a single hot cache line again; with
+// exactSequence, add() uses it too. Without, add() goes
+// to the cells, so tickets count only the increment()
+// calls.
+import java.util.concurrent.atomic.*;
+
+class StripedCount extends Count {
+	private final LongAdder adder = new LongAdder();
+	private final AtomicInteger sequence = new AtomicInteger(0);
+	private final boolean exactSequence;
+	public StripedCount(boolean exactSequence) {
+		this.exactSequence = exactSequence;
+	}
+	public int increment() {
+		return sequence.incrementAndGet();
+	}
+	public void add() {
+		if(exactSequence)
+			sequence.incrementAndGet();
+		else
+			adder.increment();
+	}
+	public int value() {
+		return sequence.get() + adder.intValue();
+	}
+	public boolean hasSequence() { return exactSequence; }
+} ///:~
@@ -0,0 +1,41 @@
+package thinking.concurrency;
+
+//: concurrency/StripedIntWindowSet.java
+// A thread-safe IntWindowSet split into independently locked
+// stripes. A value always maps to the same stripe, so
+// duplicates are still caught; each stripe evicts its own
+// oldest element, so the window is the last ~'window' values
+// rather than exactly the last 'window'.
+
+public class StripedIntWindowSet {
+  private final IntWindowSet[] stripes;
+  private final int mask;
+  public StripedIntWindowSet(int window, int nStripes) {
+    int n = Integer.highestOneBit(Math.max(nStripes, 1));
+    stripes = new IntWindowSet[n];
+    for(int i = 0; i < n; i++)
+      stripes[i] = new IntWindowSet(Math.max(window / n, 1));
+    mask = n - 1;
+  }
+  public StripedIntWindowSet(int window) {
+    this(window, 4 * Runtime.getRuntime().availableProcessors());
+  }
+  private IntWindowSet stripe(int val) {
+    // Use different hash bits than IntWindowSet's slot():
+    int h = val * 0x85EBCA6B;
+    return stripes[(h ^ (h >>> 16)) & mask];
+  }
+  public boolean contains(int val) {
+    IntWindowSet s = stripe(val);
+    synchronized(s) {
+      return s.contains(val);
+    }
+  }
+  // Atomic check-and-add; false means val is a duplicate:
+  public boolean add(int val) {
+    IntWindowSet s = stripe(val);
+    synchronized(s) {
+      return s.add(val);
+    }
+  }
+} ///:~
@@ -0,0 +1,16 @@
+package thinking.concurrency;
+
+//: concurrency/ThreadSweep.java
+// The thread counts a scaling harness runs at: 1, 2, 4 ...
+// below max, then max itself, so an odd max still ends.
+import java.util.*;
+
+class ThreadSweep {
+  static List<Integer> upTo(int max) {
+    List<Integer> counts = new ArrayList<Integer>();
+    for(int n = 1; n < max; n *= 2)
+      counts.add(n);
+    counts.add(Math.max(max, 1));
+    return counts;
+  }
+} ///:~
@@ -0,0 +1,57 @@
+package thinking.concurrency;
+
+//: concurrency/WheelLiftOff.java
+// LiftOff countdowns driven by a HashedTimingWheel: each
+// tick of a countdown is a scheduled timeout rather than a
+// loop iteration, so a countdown holds no thread while it
+// waits and one wheel thread runs them all.
+// {Args: 1000000 100} runs a million without printing
+import java.util.concurrent.*;
+
+public class WheelLiftOff extends LiftOff {
+  private final HashedTimingWheel wheel;
+  private final long periodMillis;
+  private final CountDownLatch launched;
+  private final boolean verbose;
+  public WheelLiftOff(HashedTimingWheel wheel, long periodMillis,
+    CountDownLatch launched, boolean verbose) {
+    this.wheel = wheel;
+    this.periodMillis = periodMillis;
+    this.launched = launched;
+    this.verbose = verbose;
+  }
+  // One step of the countdown, then schedule the next:
+  public void run() {
+    countDown--;
+    if(verbose) System.out.print(status());
+    if(countDown > 0)
+      wheel.schedule(this, periodMillis, TimeUnit.MILLISECONDS);
+    else
+      launched.countDown();
+  }
+  public static void main(String[] args) throws Exception {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    long period = args.length > 1 ? Long.parseLong(args[1]) : 10;
+    boolean verbose = n <= 100;
+    HashedTimingWheel wheel =
+      new HashedTimingWheel(1, TimeUnit.MILLISECONDS, 1024);
+    CountDownLatch launched = new CountDownLatch(n);
+    long t0 = System.nanoTime();
+    for(int i = 0; i < n; i++)
+      // Stagger the starts across one period:
+      wheel.schedule(new WheelLiftOff(wheel, period, launched, verbose),
+        i % period, TimeUnit.MILLISECONDS);
+    if(!verbose)
+      System.out.println(wheel.pending() + " countdowns pending, " +
+        Thread.activeCount() + " threads");
+    launched.await();
+    System.out.println((verbose ? "\n" : "") + n + " launches in " +
+      (System.nanoTime() - t0) / 1000000 + " ms");
+    wheel.stop();
+  }
+} /* Output: (Sample)
+#0(9), #1(9), #2(9), #3(9), #4(9), #0(8), #1(8), #2(8), #3(8),
+...
+#0(Liftoff!), #1(Liftoff!), #2(Liftoff!), #3(Liftoff!), #4(Liftoff!),
+5 launches in 108 ms
+*///:~
@@ -0,0 +1,130 @@
+package thinking.concurrency;
+
+//: concurrency/WriteBehind.java
+// Write-behind with group commit. store() only enqueues into a
+// bounded, pre-allocated ring (RingBlockingQueue), blocking
+// when it is full (backpressure). A single committer thread
+// drains whatever has queued up and hands it to the Sink as
+// one batch, so a slow persist is paid once per batch instead
+// of once per item. flush() waits until everything stored
+// before the call has been persisted.
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class WriteBehind<T> {
+  public interface Sink<T> {
+    void persist(List<T> batch) throws Exception;
+  }
+  private final Sink<T> sink;
+  private final BlockingQueue<T> queue;
+  private final int maxBatch;
+  // Reserved before the put(), so that once store() returns
+  // the item is covered by any later flush() target:
+  private final AtomicLong stored = new AtomicLong(0);
+  private long committed = 0; // Guarded by this
+  private long batches = 0;   // Guarded by this
+  private volatile boolean closed = false;
+  private volatile Exception failure = null;
+  private final Thread committer;
+  // How often blocked store()s and an idle committer look at
+  // failure and closed:
+  private static final long CHECK_MILLIS = 100;
+  public WriteBehind(Sink<T> sink, int capacity, int maxBatch) {
+    this.sink = sink;
+    this.queue = new RingBlockingQueue<T>(capacity);
+    this.maxBatch = maxBatch;
+    committer = new Thread(new Committer(), "WriteBehind-committer");
+    committer.setDaemon(true);
+    committer.start();
+  }
+  public WriteBehind(Sink<T> sink) { this(sink, 1024, 1024); }
+  public void store(T item) throws InterruptedException {
+    if(closed)
+      throw new IllegalStateException("WriteBehind is closed");
+    checkFailure();
+    stored.incrementAndGet();
+    // Nothing drains the queue after a failure, so don't wait
+    // on it forever:
+    while(!queue.offer(item, CHECK_MILLIS, TimeUnit.MILLISECONDS))
+      checkFailure();
+  }
+  // Durability point for everything already stored:
+  public void flush() throws InterruptedException {
+    long target = stored.get();
+    synchronized(this) {
+      while(committed < target) {
+        checkFailure();
+        wait();
+      }
+    }
+  }
+  public boolean flush(long timeout, TimeUnit unit)
+  throws InterruptedException {
+    long target = stored.get();
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized(this) {
+      while(committed < target) {
+        checkFailure();
+        long left = deadline - System.nanoTime();
+        if(left <= 0) return false;
+        TimeUnit.NANOSECONDS.timedWait(this, left);
+      }
+    }
+    return true;
+  }
+  // Persist what is queued, then stop the committer. The
+  // committer also stops by itself once closed and idle, so
+  // this returns even if the Sink swallows the interrupt:
+  public void close() throws InterruptedException {
+    closed = true;
+    try {
+      flush(); // Throws if a persist has failed
+    } finally {
+      committer.interrupt();
+      committer.join();
+    }
+  }
+  // The committer stops on a failed persist rather than
+  // dropping the batch, so report that to waiters:
+  private void checkFailure() {
+    if(failure != null)
+      throw new IllegalStateException("Persist failed", failure);
+  }
+  public synchronized long committed() { return committed; }
+  public synchronized long batches() { return batches; }
+  public int queued() { return queue.size(); }
+  private class Committer implements Runnable {
+    public void run() {
+      List<T> batch = new ArrayList<T>(maxBatch);
+      try {
+        while(!Thread.interrupted()) {
+          T first = queue.poll(CHECK_MILLIS, TimeUnit.MILLISECONDS);
+          if(first == null) {
+            if(closed) return;
+            continue;
+          }
+          batch.add(first);
+          queue.drainTo(batch, maxBatch - 1);
+          try {
+            sink.persist(Collections.unmodifiableList(batch));
+          } catch(Exception e) {
+            synchronized(WriteBehind.this) {
+              failure = e;
+              WriteBehind.this.notifyAll();
+            }
+            return;
+          }
+          synchronized(WriteBehind.this) {
+            committed += batch.size();
+            batches++;
+            WriteBehind.this.notifyAll();
+          }
+          batch = new ArrayList<T>(maxBatch);
+        }
+      } catch(InterruptedException e) {
+        // Acceptable way to exit
+      }
+    }
+  }
+} ///:~